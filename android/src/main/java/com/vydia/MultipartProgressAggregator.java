@@ -0,0 +1,128 @@
+package com.vydia.RNUploader;
+
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sums the progress of all the parts of a multipart upload into a single progress event stream.
+ * Events are sent at most every PROGRESS_INTERVAL, and when a part completes. The reported bytes
+ * never go backwards, even when a part is retried and starts over. An event is also sent right
+ * away when the upload starts or stops waiting for network, which is the case while any of its
+ * parts is waiting.
+ */
+class MultipartProgressAggregator {
+
+  /**
+   * Minimum time between two progress events, in milliseconds.
+   */
+  private static final long PROGRESS_INTERVAL = 250;
+
+  /**
+   * Weight of the last interval in the throughput average.
+   */
+  private static final double SMOOTHING = 0.3;
+
+  private final UploaderModule module;
+  private final String uploadId;
+  private final long totalBytes;
+  private final int totalParts;
+  private final Map<Integer, Long> partsInFlight = new HashMap<>();
+  private final Set<Integer> partsWaitingForNetwork = new HashSet<>();
+  private long completedBytes;
+  private int partsDone;
+
+  private long lastEventTime;
+  private long lastEventBytes;
+  private double throughput = 0; // bytes per second
+
+  /*
+   * completedBytes and partsDone include the parts uploaded before the session started.
+   * totalParts is -1 when it's not known in advance.
+   */
+  MultipartProgressAggregator(UploaderModule module, String uploadId, long totalBytes, int totalParts,
+                              long completedBytes, int partsDone) {
+    this.module = module;
+    this.uploadId = uploadId;
+    this.totalBytes = totalBytes;
+    this.totalParts = totalParts;
+    this.completedBytes = completedBytes;
+    this.partsDone = partsDone;
+    this.lastEventBytes = completedBytes;
+    this.lastEventTime = SystemClock.elapsedRealtime();
+  }
+
+  synchronized void onPartStarted(int part) {
+    partsInFlight.put(part, 0L);
+  }
+
+  synchronized void onPartProgress(int part, long uploadedBytes, boolean waitingForNetwork) {
+    // late events of a part which has already completed or failed
+    if (!partsInFlight.containsKey(part)) return;
+
+    partsInFlight.put(part, uploadedBytes);
+
+    boolean wasWaiting = !partsWaitingForNetwork.isEmpty();
+    if (waitingForNetwork) {
+      partsWaitingForNetwork.add(part);
+    } else {
+      partsWaitingForNetwork.remove(part);
+    }
+
+    if (wasWaiting != !partsWaitingForNetwork.isEmpty()
+        || SystemClock.elapsedRealtime() - lastEventTime >= PROGRESS_INTERVAL) {
+      sendProgress(part, null);
+    }
+  }
+
+  synchronized void onPartCompleted(int part, long length, String md5) {
+    if (partsInFlight.remove(part) == null) return;
+    partsWaitingForNetwork.remove(part);
+
+    completedBytes += length;
+    partsDone++;
+    sendProgress(part, md5);
+  }
+
+  private void sendProgress(int currentPart, String md5) {
+    long now = SystemClock.elapsedRealtime();
+
+    long bytesSent = completedBytes;
+    for (long uploadedBytes : partsInFlight.values()) {
+      bytesSent += uploadedBytes;
+    }
+    bytesSent = Math.max(Math.min(bytesSent, totalBytes), lastEventBytes);
+
+    long elapsed = now - lastEventTime;
+    if (elapsed > 0) {
+      double measured = (double) (bytesSent - lastEventBytes) * 1000 / elapsed;
+      throughput = throughput == 0 ? measured : SMOOTHING * measured + (1 - SMOOTHING) * throughput;
+    }
+    lastEventTime = now;
+    lastEventBytes = bytesSent;
+
+    WritableMap params = Arguments.createMap();
+    params.putString("id", uploadId);
+    params.putInt("progress", totalBytes == 0 ? 0 : (int) (bytesSent * 100 / totalBytes));
+    params.putDouble("bytesSent", bytesSent);
+    params.putDouble("totalBytes", totalBytes);
+    params.putInt("partsDone", partsDone);
+    if (totalParts > 0) {
+      params.putInt("totalParts", totalParts);
+    }
+    params.putDouble("throughput", throughput);
+    params.putBoolean("waitingForNetwork", !partsWaitingForNetwork.isEmpty());
+    params.putInt("currentPart", currentPart);
+    if (md5 != null) {
+      params.putString("md5", md5);
+    }
+
+    module.sendEvent("progress", params);
+  }
+}
@@ -0,0 +1,273 @@
+package com.vydia.RNUploader;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of a multipart upload, kept in the app files directory so that the upload
+ * can be resumed with resumeMultiPartUpload after the app process has been killed.
+ * The first line contains the upload options, every following line a successfully uploaded part,
+ * or a planned part when the part layout is not fixed in advance (see {@link PartSizePlanner}).
+ * Each line is a JSON object, and a line which can't be parsed (e.g. because the process died
+ * while writing it) is ignored, so the worst case is uploading that part again.
+ */
+class MultipartUploadJournal {
+  private static final String TAG = "MultipartUploadJournal";
+  private static final String DIRECTORY = "multipart-uploads";
+  private static final String EXTENSION = ".journal";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Options which are not written to disk. The access token is short-lived anyway, so a new one
+   * has to be passed when resuming the upload.
+   */
+  private static final String[] TRANSIENT_OPTIONS = {"accessToken"};
+
+  static class Part {
+    final int number;
+    final long offset;
+    final long length;
+    final String etag;
+    final String md5;
+
+    Part(int number, long offset, long length, String etag, String md5) {
+      this.number = number;
+      this.offset = offset;
+      this.length = length;
+      this.etag = etag;
+      this.md5 = md5;
+    }
+  }
+
+  private final File file;
+  private final String uploadId;
+  private final Map<String, Object> options;
+  private final Map<Integer, Part> plannedParts = new LinkedHashMap<>();
+  private final Map<Integer, Part> uploadedParts = new LinkedHashMap<>();
+
+  private MultipartUploadJournal(File file, String uploadId, Map<String, Object> options) {
+    this.file = file;
+    this.uploadId = uploadId;
+    this.options = options;
+  }
+
+  /*
+   * Creates the journal of a new upload, replacing any previous one with the same ID.
+   */
+  static MultipartUploadJournal create(Context context, String uploadId, ReadableMap options)
+      throws IOException, JSONException {
+    Map<String, Object> persistedOptions = options.toHashMap();
+    for (String key : TRANSIENT_OPTIONS) {
+      persistedOptions.remove(key);
+    }
+
+    JSONObject header = new JSONObject();
+    header.put("id", uploadId);
+    header.put("options", new JSONObject(persistedOptions));
+
+    File file = fileOf(context, uploadId);
+    File directory = file.getParentFile();
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Unable to create " + directory);
+    }
+
+    MultipartUploadJournal journal = new MultipartUploadJournal(file, uploadId, persistedOptions);
+    journal.write(header, false);
+    return journal;
+  }
+
+  /*
+   * Reads the journal of an upload. Returns null if the upload has no journal.
+   */
+  static MultipartUploadJournal open(Context context, String uploadId) throws IOException, JSONException {
+    File file = fileOf(context, uploadId);
+    if (!file.exists()) {
+      return null;
+    }
+    return read(file);
+  }
+
+  /*
+   * Reads all the journals, which are the uploads which have been interrupted and can be resumed.
+   */
+  static List<MultipartUploadJournal> list(Context context) {
+    List<MultipartUploadJournal> journals = new ArrayList<>();
+    File[] files = new File(context.getFilesDir(), DIRECTORY).listFiles();
+    if (files == null) {
+      return journals;
+    }
+
+    for (File file : files) {
+      if (!file.getName().endsWith(EXTENSION)) continue;
+      try {
+        journals.add(read(file));
+      } catch (IOException | JSONException exc) {
+        Log.e(TAG, "Unable to read " + file, exc);
+      }
+    }
+    return journals;
+  }
+
+  private static MultipartUploadJournal read(File file) throws IOException, JSONException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+    try {
+      String line = reader.readLine();
+      if (line == null) {
+        throw new JSONException("Empty journal " + file);
+      }
+
+      JSONObject header = new JSONObject(line);
+      MultipartUploadJournal journal = new MultipartUploadJournal(
+          file, header.getString("id"), toMap(header.getJSONObject("options")));
+
+      while ((line = reader.readLine()) != null) {
+        try {
+          JSONObject entry = new JSONObject(line);
+          Part part = new Part(entry.getInt("part"), entry.getLong("offset"), entry.getLong("length"),
+                               entry.optString("etag", null), entry.optString("md5", null));
+          if (entry.optBoolean("planned", false)) {
+            journal.plannedParts.put(part.number, part);
+          } else {
+            journal.uploadedParts.put(part.number, part);
+          }
+        } catch (JSONException exc) {
+          Log.w(TAG, "Skipping invalid entry in " + file + ": " + line);
+        }
+      }
+
+      return journal;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static File fileOf(Context context, String uploadId) throws IOException {
+    // custom upload IDs may contain characters which are not allowed in file names
+    String name = URLEncoder.encode(uploadId, "UTF-8");
+    return new File(new File(context.getFilesDir(), DIRECTORY), name + EXTENSION);
+  }
+
+  String getUploadId() {
+    return uploadId;
+  }
+
+  /*
+   * Gets the options the upload has been started with, except the transient ones.
+   */
+  ReadableMap getOptions() {
+    return Arguments.makeNativeMap(options);
+  }
+
+  /*
+   * Gets the uploaded parts, by part number.
+   */
+  synchronized Map<Integer, Part> getUploadedParts() {
+    return new HashMap<>(uploadedParts);
+  }
+
+  /*
+   * Gets the planned parts, by part number. Uploaded parts may or may not be among them.
+   */
+  synchronized Map<Integer, Part> getPlannedParts() {
+    return new HashMap<>(plannedParts);
+  }
+
+  /*
+   * Records the range of a part before uploading it, so that the same part number is used for the
+   * same range when resuming. The entry is synced to disk before returning.
+   */
+  synchronized void partPlanned(Part part) throws IOException, JSONException {
+    JSONObject entry = toJson(part);
+    entry.put("planned", true);
+
+    write(entry, true);
+    plannedParts.put(part.number, part);
+  }
+
+  /*
+   * Records a part as uploaded. The entry is synced to disk before returning.
+   */
+  synchronized void partUploaded(Part part) throws IOException, JSONException {
+    write(toJson(part), true);
+    uploadedParts.put(part.number, part);
+  }
+
+  private static JSONObject toJson(Part part) throws JSONException {
+    JSONObject entry = new JSONObject();
+    entry.put("part", part.number);
+    entry.put("offset", part.offset);
+    entry.put("length", part.length);
+    if (part.etag != null) entry.put("etag", part.etag);
+    if (part.md5 != null) entry.put("md5", part.md5);
+    return entry;
+  }
+
+  /*
+   * Deletes the journal, once the upload can't be resumed anymore.
+   */
+  synchronized void delete() {
+    if (file.exists() && !file.delete()) {
+      Log.w(TAG, "Unable to delete " + file);
+    }
+  }
+
+  private void write(JSONObject entry, boolean append) throws IOException {
+    FileOutputStream outputStream = new FileOutputStream(file, append);
+    try {
+      outputStream.write((entry.toString() + "\n").getBytes(UTF8));
+      outputStream.getFD().sync();
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  private static Map<String, Object> toMap(JSONObject object) throws JSONException {
+    Map<String, Object> map = new HashMap<>();
+    Iterator<String> keys = object.keys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      map.put(key, fromJson(object.get(key)));
+    }
+    return map;
+  }
+
+  private static Object fromJson(Object value) throws JSONException {
+    if (value instanceof JSONObject) {
+      return toMap((JSONObject) value);
+    }
+    if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      List<Object> list = new ArrayList<>(array.length());
+      for (int i = 0; i < array.length(); i++) {
+        list.add(fromJson(array.get(i)));
+      }
+      return list;
+    }
+    if (value == JSONObject.NULL) {
+      return null;
+    }
+    return value;
+  }
+}
@@ -0,0 +1,546 @@
+package com.vydia.RNUploader;
+
+import android.content.Context;
+import android.util.Base64;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import net.gotev.uploadservice.HttpUploadRequest;
+import net.gotev.uploadservice.ServerResponse;
+import net.gotev.uploadservice.UploadInfo;
+import net.gotev.uploadservice.UploadProgressDelegate;
+import net.gotev.uploadservice.UploadService;
+import net.gotev.uploadservice.UploadStatusDelegate;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Drives a single S3 multipart upload started with startMultiPartUpload.
+ * Every part is uploaded as a separate request handled by the UploadService thread pool.
+ * Up to maxConcurrentParts parts are kept in flight: every time a part finishes, the next one
+ * is started, and the upload is reported as completed only once every part has succeeded.
+ * The uploaded parts are recorded in a {@link MultipartUploadJournal}, and the parts already
+ * in the journal are skipped, so that an interrupted upload can be resumed.
+ * Parts are either partSize bytes long, or sized by a {@link PartSizePlanner} as the upload goes
+ * when adaptivePartSize is set, in which case totalPart and beginPart are not used.
+ * Everything but cancel() runs on a {@link SerialExecutor} of the module part executor, so the
+ * presigned URL requests and the disk I/O never block the React Native or the main thread,
+ * and the session state needs no locking.
+ */
+class MultipartUploadSession {
+  private static final String TAG = "MultipartUploadSession";
+
+  /**
+   * How long before their expiry the presigned URLs are fetched again, in milliseconds.
+   */
+  private static final long DEFAULT_PRESIGN_EXPIRY_MARGIN = 60 * 1000;
+
+  private static final long DEFAULT_MAX_PART_SIZE = 64 * 1024 * 1024;
+  private static final long DEFAULT_TARGET_PART_DURATION = 30 * 1000;
+
+  private final UploaderModule module;
+  private final String uploadId;
+  private final ReadableMap options;
+  private final String filePath;
+  private final long partSize;
+  private final int totalPart;
+  private final PartSizePlanner planner;
+  private final int maxConcurrentParts;
+  private final int presignPrefetchCount;
+  private final boolean contentMd5;
+  private final PresignedUrlCache presignedUrls;
+  private final Executor executor;
+  private final Set<Integer> uploadedParts = new HashSet<>();
+  private MultipartUploadJournal journal;
+  private MultipartProgressAggregator progress;
+  private long totalSize;
+
+  // the service only keeps weak references to the delegates, so they're held here
+  private final Map<Integer, PartDelegate> partsInFlight = new HashMap<>();
+
+  // planned parts which have not been started, only when resuming an adaptive upload
+  private final TreeMap<Integer, MultipartUploadJournal.Part> pendingParts = new TreeMap<>();
+  private int nextPart;
+  private long nextOffset;
+  private ServerResponse lastResponse;
+  private boolean finished = false;
+
+  // set from the thread calling cancel(), to stop before the cancellation task runs
+  private volatile boolean cancelRequested = false;
+
+  MultipartUploadSession(final UploaderModule module, String uploadId, final ReadableMap options) {
+    this.module = module;
+    this.uploadId = uploadId;
+    this.options = options;
+    this.executor = new SerialExecutor(module.getPartExecutor());
+
+    String path = options.getString("path");
+    if (path.startsWith("file://")) {
+      path = path.replace("file://", "");
+    }
+    this.filePath = path;
+    this.partSize = (long) options.getDouble("partSize");
+    this.maxConcurrentParts = options.hasKey("maxConcurrentParts") ? Math.max(1, options.getInt("maxConcurrentParts")) : 1;
+    this.presignPrefetchCount = options.hasKey("presignPrefetchCount") ? Math.max(0, options.getInt("presignPrefetchCount")) : maxConcurrentParts;
+
+    this.contentMd5 = options.hasKey("contentMd5") && options.getBoolean("contentMd5");
+
+    long expiryMargin = options.hasKey("presignExpiryMargin") ? (long) options.getDouble("presignExpiryMargin") : DEFAULT_PRESIGN_EXPIRY_MARGIN;
+    this.presignedUrls = new PresignedUrlCache(new PresignedUrlCache.Fetcher() {
+      @Override
+      public PresignedUrlCache.PresignedUrl fetch(int partNumber) throws Exception {
+        return module.fetchPresignUrl(options, partNumber);
+      }
+    }, module.getPresignExecutor(), expiryMargin);
+
+    if (options.hasKey("adaptivePartSize") && options.getBoolean("adaptivePartSize")) {
+      long maxPartSize = options.hasKey("maxPartSize") ? (long) options.getDouble("maxPartSize") : DEFAULT_MAX_PART_SIZE;
+      long targetDuration = options.hasKey("targetPartDuration") ? (long) options.getDouble("targetPartDuration") : DEFAULT_TARGET_PART_DURATION;
+      this.planner = new PartSizePlanner(partSize, maxPartSize, targetDuration);
+      this.totalPart = PartSizePlanner.MAX_PARTS;
+      this.nextPart = 1;
+
+    } else {
+      this.planner = null;
+      this.totalPart = options.getInt("totalPart");
+
+      int beginPart = options.getInt("beginPart");
+      if (beginPart < 1 || beginPart > totalPart) {
+        throw new IllegalArgumentException("beginPart must be between 1 and totalPart.");
+      }
+
+      // parts before beginPart have already been uploaded, as well as the ones in the journal
+      this.nextPart = beginPart;
+    }
+  }
+
+  /*
+   * Starts a new upload. Returns right away: the journal is created and the first parts are
+   * started in background.
+   */
+  void start(final Context context) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          init(MultipartUploadJournal.create(context, uploadId, options));
+        } catch (Exception exc) {
+          Log.e(TAG, "Unable to create the journal of upload " + uploadId, exc);
+          fail(null, exc);
+          return;
+        }
+        fillWindow();
+      }
+    });
+  }
+
+  /*
+   * Resumes an interrupted upload, skipping the parts already in its journal.
+   */
+  void resume(final MultipartUploadJournal journal) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        init(journal);
+        fillWindow();
+      }
+    });
+  }
+
+  private void init(MultipartUploadJournal journal) {
+    this.journal = journal;
+    this.totalSize = new File(filePath).length();
+    uploadedParts.addAll(journal.getUploadedParts().keySet());
+
+    if (planner != null) {
+      // the parts planned before the upload was interrupted keep their number and range,
+      // and the new ones follow them
+      for (MultipartUploadJournal.Part part : journal.getPlannedParts().values()) {
+        if (!uploadedParts.contains(part.number)) pendingParts.put(part.number, part);
+        nextPart = Math.max(nextPart, part.number + 1);
+        nextOffset = Math.max(nextOffset, part.offset + part.length);
+      }
+    }
+
+    // parts before beginPart have been uploaded before, as well as the ones in the journal
+    long uploadedBytes = 0;
+    int uploadedCount = 0;
+    if (planner == null) {
+      uploadedCount = nextPart - 1;
+      uploadedBytes = Math.min(totalSize, uploadedCount * partSize);
+    }
+    for (MultipartUploadJournal.Part part : journal.getUploadedParts().values()) {
+      if (planner == null && part.number < nextPart) continue;
+      uploadedBytes += part.length;
+      uploadedCount++;
+    }
+    progress = new MultipartProgressAggregator(module, uploadId, totalSize, planner == null ? totalPart : -1,
+                                               uploadedBytes, uploadedCount);
+  }
+
+  /*
+   * Cancels all the parts in flight. The "cancelled" event is sent right away, because there
+   * may be no running part to report it.
+   */
+  void cancel() {
+    cancelRequested = true;
+    // wakes up a part which is waiting for its presigned URL
+    presignedUrls.clear();
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        onCancelled();
+      }
+    });
+  }
+
+  private void onCancelled() {
+    if (finished) return;
+
+    List<Integer> parts = new ArrayList<>(partsInFlight.keySet());
+    finish();
+
+    for (int part : parts) {
+      UploadService.stopUpload(partUploadId(part));
+    }
+    if (journal != null) {
+      journal.delete();
+    }
+
+    WritableMap params = Arguments.createMap();
+    params.putString("id", uploadId);
+    module.sendEvent("cancelled", params);
+  }
+
+  /*
+   * Starts parts until maxConcurrentParts are in flight, and completes the upload if there are
+   * no parts left.
+   */
+  private void fillWindow() {
+    while (!finished && !cancelRequested && partsInFlight.size() < maxConcurrentParts) {
+      MultipartUploadJournal.Part part;
+      try {
+        part = planNextPart();
+        if (part == null) break;
+
+        startPart(part.number, part.offset, part.length);
+      } catch (Exception exc) {
+        // the part has been interrupted by cancel(), which is going to report the cancellation
+        if (cancelRequested) return;
+
+        Log.e(TAG, "Unable to start the next part of upload " + uploadId, exc);
+        fail(null, exc);
+        return;
+      }
+    }
+
+    if (finished || cancelRequested) return;
+
+    if (partsInFlight.isEmpty()) {
+      onPartsCompleted(lastResponse);
+      return;
+    }
+
+    // get the URLs of the next parts while the current ones are uploading
+    presignedUrls.refreshExpiring();
+    int prefetched = 0;
+    for (int part : pendingParts.keySet()) {
+      if (prefetched++ >= presignPrefetchCount) break;
+      presignedUrls.prefetch(part);
+    }
+    if (planner != null && nextOffset >= totalSize) return;
+    for (int part = nextPart; prefetched < presignPrefetchCount && part <= totalPart; part++) {
+      if (uploadedParts.contains(part)) continue;
+      presignedUrls.prefetch(part);
+      prefetched++;
+    }
+  }
+
+  /*
+   * Gets the number and range of the next part to upload, or null if all the parts have been
+   * started already. In adaptive mode, the part is recorded in the journal before it's started.
+   */
+  private MultipartUploadJournal.Part planNextPart() throws IOException, JSONException {
+    if (planner == null) {
+      while (nextPart <= totalPart && uploadedParts.contains(nextPart)) nextPart++;
+      if (nextPart > totalPart) return null;
+
+      int number = nextPart++;
+      long offset = (number - 1) * partSize;
+      long length = number == totalPart ? totalSize - offset : partSize;
+      return new MultipartUploadJournal.Part(number, offset, length, null, null);
+    }
+
+    if (!pendingParts.isEmpty()) {
+      return pendingParts.pollFirstEntry().getValue();
+    }
+
+    if (nextOffset >= totalSize) return null;
+
+    long remaining = totalSize - nextOffset;
+    long length = planner.nextPartSize(remaining, totalPart - nextPart + 1);
+    MultipartUploadJournal.Part part = new MultipartUploadJournal.Part(nextPart, nextOffset, length, null, null);
+    journal.partPlanned(part);
+
+    nextPart++;
+    nextOffset += length;
+    return part;
+  }
+
+  private void startPart(int part, long position, long length) throws Exception {
+    String presignUrl = presignedUrls.take(part);
+
+    // cancelled while waiting for the URL, cancel() reports it
+    if (cancelRequested) return;
+
+    HttpUploadRequest<?> request = module.createPartRequest(options, partUploadId(part), presignUrl,
+                                                            filePath, position, length);
+
+    // the md5 is computed while the part is uploaded, unless the server wants it upfront
+    String md5 = null;
+    if (contentMd5) {
+      md5 = module.hash(filePath, "md5", position, length);
+      if (md5 == null) {
+        throw new IllegalStateException("Unable to compute the md5 of part " + part);
+      }
+      request.addHeader("Content-MD5", hexToBase64(md5));
+    } else {
+      request.setDigestAlgorithm("MD5");
+    }
+
+    PartDelegate delegate = new PartDelegate(part, position, length, md5);
+    request.setDelegate(delegate);
+
+    partsInFlight.put(part, delegate);
+    progress.onPartStarted(part);
+    request.startUpload();
+  }
+
+  private static String hexToBase64(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    }
+    return Base64.encodeToString(bytes, Base64.NO_WRAP);
+  }
+
+  private static String etagOf(ServerResponse serverResponse) {
+    for (Map.Entry<String, String> header : serverResponse.getHeaders().entrySet()) {
+      if ("ETag".equalsIgnoreCase(header.getKey())) {
+        return header.getValue();
+      }
+    }
+    return null;
+  }
+
+  private String partUploadId(int part) {
+    return uploadId + "_part" + part;
+  }
+
+  private void onPartCompleted(MultipartUploadJournal.Part part, ServerResponse serverResponse) {
+    if (finished || partsInFlight.remove(part.number) == null) return;
+
+    try {
+      journal.partUploaded(part);
+    } catch (IOException | JSONException exc) {
+      // the upload can go on, it just won't be possible to skip this part when resuming
+      Log.e(TAG, "Unable to record part " + part.number + " of upload " + uploadId, exc);
+    }
+    uploadedParts.add(part.number);
+    lastResponse = serverResponse;
+
+    fillWindow();
+  }
+
+  /*
+   * serverResponse is the response to the last uploaded part, or null if no part has been uploaded
+   * by this session. The layout of the parts is reported as well, since it's not known in advance
+   * in adaptive mode.
+   */
+  private void onPartsCompleted(ServerResponse serverResponse) {
+    List<MultipartUploadJournal.Part> uploaded = new ArrayList<>(new TreeMap<>(journal.getUploadedParts()).values());
+
+    if (options.hasKey("completeUrl")) {
+      try {
+        serverResponse = complete(uploaded);
+      } catch (Exception exc) {
+        if (cancelRequested) return;
+
+        Log.e(TAG, "Unable to complete upload " + uploadId, exc);
+        fail(null, exc);
+        return;
+      }
+      if (cancelRequested) return;
+
+      if (!isCompleted(serverResponse)) {
+        fail(serverResponse, new IOException("Unable to complete the upload, the server responded with HTTP "
+                                             + serverResponse.getHttpCode()));
+        return;
+      }
+    }
+
+    finish();
+
+    WritableArray parts = Arguments.createArray();
+    for (MultipartUploadJournal.Part part : uploaded) {
+      WritableMap partParams = Arguments.createMap();
+      partParams.putInt("partNumber", part.number);
+      partParams.putDouble("offset", part.offset);
+      partParams.putDouble("length", part.length);
+      if (part.etag != null) partParams.putString("etag", part.etag);
+      if (part.md5 != null) partParams.putString("md5", part.md5);
+      parts.pushMap(partParams);
+    }
+    journal.delete();
+
+    WritableMap params = Arguments.createMap();
+    params.putString("id", uploadId);
+    if (serverResponse != null) {
+      params.putInt("responseCode", serverResponse.getHttpCode());
+      params.putString("responseBody", serverResponse.getBodyAsString());
+    }
+    params.putArray("parts", parts);
+    module.sendEvent("completed", params);
+  }
+
+  /*
+   * Sends the ETags of all the parts to completeUrl. This needs the ETags of the parts uploaded
+   * before beginPart too, so they must have been uploaded by this module.
+   */
+  private ServerResponse complete(List<MultipartUploadJournal.Part> parts) throws Exception {
+    if (planner == null && parts.size() != totalPart) {
+      throw new IllegalStateException("Only " + parts.size() + " of the " + totalPart
+                                      + " parts have been uploaded by this module, the upload can't be completed natively.");
+    }
+    for (MultipartUploadJournal.Part part : parts) {
+      if (part.etag == null) {
+        throw new IllegalStateException("The server didn't return the ETag of part " + part.number + ".");
+      }
+    }
+
+    return module.completeMultipartUpload(options, parts);
+  }
+
+  /*
+   * S3 may report an error in the body of an HTTP 200 response to CompleteMultipartUpload.
+   */
+  private boolean isCompleted(ServerResponse serverResponse) {
+    int httpCode = serverResponse.getHttpCode();
+    if (httpCode < 200 || httpCode >= 300) return false;
+
+    boolean s3 = options.hasKey("completeType") && options.getString("completeType").equals("s3");
+    return !s3 || !serverResponse.getBodyAsString().contains("<Error>");
+  }
+
+  /*
+   * A single failed part fails the whole upload, so the other parts in flight are stopped.
+   */
+  private void fail(ServerResponse serverResponse, Exception exception) {
+    if (finished) return;
+
+    List<Integer> parts = new ArrayList<>(partsInFlight.keySet());
+    finish();
+
+    for (int part : parts) {
+      UploadService.stopUpload(partUploadId(part));
+    }
+
+    WritableMap params = Arguments.createMap();
+    params.putString("id", uploadId);
+    if (serverResponse != null) {
+      params.putInt("responseCode", serverResponse.getHttpCode());
+      params.putString("responseBody", serverResponse.getBodyAsString());
+    }
+
+    // Make sure we do not try to call getMessage() on a null object
+    if (exception != null){
+      params.putString("error", exception.getMessage());
+    } else {
+      params.putString("error", "Unknown exception");
+    }
+
+    // the journal is kept, so that the upload can be resumed
+    module.sendEvent("error", params);
+  }
+
+  private void finish() {
+    finished = true;
+    partsInFlight.clear();
+    presignedUrls.clear();
+    module.onMultipartUploadFinished(uploadId);
+  }
+
+  private class PartDelegate implements UploadStatusDelegate, UploadProgressDelegate {
+    private final int part;
+    private final long position;
+    private final long length;
+    private volatile String md5;
+
+    PartDelegate(int part, long position, long length, String md5) {
+      this.part = part;
+      this.position = position;
+      this.length = length;
+      this.md5 = md5;
+    }
+
+    @Override
+    public void onProgress(Context context, String uploadId, long uploadedBytes, long totalBytes, long timestamp) {
+      progress.onPartProgress(part, uploadedBytes, false);
+    }
+
+    @Override
+    public void onProgress(Context context, UploadInfo uploadInfo) {
+      progress.onPartProgress(part, uploadInfo.getUploadedBytes(), uploadInfo.isWaitingForNetwork());
+    }
+
+    @Override
+    public void onError(Context context, UploadInfo uploadInfo, final ServerResponse serverResponse, final Exception exception) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          fail(serverResponse, exception);
+        }
+      });
+    }
+
+    @Override
+    public void onCompleted(Context context, final UploadInfo uploadInfo, final ServerResponse serverResponse) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (uploadInfo.getDigest() != null) {
+            md5 = uploadInfo.getDigest();
+          }
+          if (planner != null) {
+            planner.onPartUploaded(length, uploadInfo.getElapsedTime(), uploadInfo.getNumberOfRetries());
+          }
+          progress.onPartCompleted(part, length, md5);
+          onPartCompleted(new MultipartUploadJournal.Part(part, position, length, etagOf(serverResponse), md5),
+                          serverResponse);
+        }
+      });
+    }
+
+    @Override
+    public void onCancelled(Context context, UploadInfo uploadInfo) {
+      // a part can also be cancelled from its notification, which cancels the whole upload
+      cancel();
+    }
+  }
+}
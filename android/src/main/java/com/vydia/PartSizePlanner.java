@@ -0,0 +1,85 @@
+package com.vydia.RNUploader;
+
+/**
+ * Picks the size of the next part of a multipart upload with adaptivePartSize enabled.
+ * Parts are sized so that each one takes about targetPartDuration to upload at the throughput
+ * measured on the previous parts, and are made smaller when parts need retries, because a retry
+ * uploads the whole part again.
+ */
+class PartSizePlanner {
+
+  /**
+   * Minimum size of all the parts but the last one, as required by S3.
+   */
+  static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+
+  /**
+   * Maximum number of parts of an S3 multipart upload.
+   */
+  static final int MAX_PARTS = 10000;
+
+  private static final long GRANULARITY = 1024 * 1024;
+
+  /**
+   * Weight of the last part in the throughput and error rate averages.
+   */
+  private static final double SMOOTHING = 0.3;
+
+  /**
+   * A part is at most this many times bigger than the previous one.
+   */
+  private static final int MAX_GROWTH = 2;
+
+  private final long maxPartSize;
+  private final long targetDuration;
+  private long partSize;
+  private double throughput = -1; // bytes per millisecond
+  private double errorRate = 0;
+
+  PartSizePlanner(long initialPartSize, long maxPartSize, long targetDuration) {
+    this.maxPartSize = Math.max(MIN_PART_SIZE, maxPartSize);
+    this.targetDuration = targetDuration;
+    this.partSize = clamp(initialPartSize);
+  }
+
+  /*
+   * Gets the size of the next part, given the bytes left to plan and the part numbers left.
+   * All the remaining bytes go in the next part if what would be left is too small for a part.
+   */
+  synchronized long nextPartSize(long remainingBytes, int remainingParts) {
+    long size = partSize;
+
+    if (remainingParts > 0) {
+      // S3 won't accept more than MAX_PARTS parts, so the rest has to fit in those left
+      size = Math.max(size, (remainingBytes + remainingParts - 1) / remainingParts);
+    }
+
+    if (remainingBytes - size < MIN_PART_SIZE) {
+      size = remainingBytes;
+    }
+
+    return size;
+  }
+
+  /*
+   * Updates the next part size with the statistics of an uploaded part.
+   * elapsedTime includes the time spent on retries, which are counted in retries.
+   */
+  synchronized void onPartUploaded(long bytes, long elapsedTime, int retries) {
+    if (elapsedTime > 0) {
+      double measured = (double) bytes / elapsedTime;
+      throughput = throughput < 0 ? measured : SMOOTHING * measured + (1 - SMOOTHING) * throughput;
+    }
+
+    errorRate = SMOOTHING * (retries > 0 ? 1 : 0) + (1 - SMOOTHING) * errorRate;
+
+    long target = throughput > 0 ? (long) (throughput * targetDuration) : partSize;
+    target = (long) (target * (1 - errorRate));
+    partSize = clamp(Math.min(target, partSize * MAX_GROWTH));
+  }
+
+  private long clamp(long size) {
+    size = size / GRANULARITY * GRANULARITY;
+    return Math.max(MIN_PART_SIZE, Math.min(maxPartSize, size));
+  }
+}
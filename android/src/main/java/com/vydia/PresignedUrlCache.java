@@ -0,0 +1,193 @@
+package com.vydia.RNUploader;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches the presigned URLs of the parts of a multipart upload ahead of the uploader and
+ * caches them together with their expiry, so that a part can start as soon as the previous
+ * one has finished, without waiting for a round-trip to the auth server.
+ * Cached URLs which are about to expire are fetched again. A URL is about to expire when less
+ * than the expiry margin is left, but at most half of its lifetime, so URLs which live less than
+ * the margin are still used.
+ */
+class PresignedUrlCache {
+  private static final String TAG = "PresignedUrlCache";
+
+  /**
+   * Used when neither the auth server nor the URL itself tell when the URL expires.
+   */
+  static final long DEFAULT_TIME_TO_LIVE = 10 * 60 * 1000;
+
+  /**
+   * Fetches the presigned URL of a part. Called on the cache executor.
+   */
+  interface Fetcher {
+    PresignedUrl fetch(int partNumber) throws Exception;
+  }
+
+  static class PresignedUrl {
+    final String url;
+    final long expiresAt;
+    // set by the cache when the fetch starts
+    long fetchedAt;
+
+    PresignedUrl(String url, long expiresAt) {
+      this.url = url;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final Fetcher fetcher;
+  private final ExecutorService executor;
+  private final long expiryMargin;
+  private final Map<Integer, Future<PresignedUrl>> entries = new HashMap<>();
+  // fetches which parts are waiting for in take(), kept to be cancelled by clear()
+  private final Map<Integer, Future<PresignedUrl>> taking = new HashMap<>();
+
+  PresignedUrlCache(Fetcher fetcher, ExecutorService executor, long expiryMargin) {
+    this.fetcher = fetcher;
+    this.executor = executor;
+    this.expiryMargin = expiryMargin;
+  }
+
+  /*
+   * Starts fetching the URL of a part in background, unless it's already cached and valid.
+   */
+  synchronized void prefetch(int partNumber) {
+    Future<PresignedUrl> entry = entries.get(partNumber);
+    if (entry == null || isExpiring(entry)) {
+      entries.put(partNumber, submit(partNumber));
+    }
+  }
+
+  /*
+   * Gets the URL of a part, waiting for it if it's still being fetched. The URL is removed from
+   * the cache, as every part is uploaded once.
+   */
+  String take(int partNumber) throws InterruptedException, ExecutionException {
+    Future<PresignedUrl> entry;
+
+    synchronized (this) {
+      entry = entries.remove(partNumber);
+      if (entry == null || isExpiring(entry)) {
+        entry = submit(partNumber);
+      }
+      taking.put(partNumber, entry);
+    }
+
+    try {
+      PresignedUrl presignedUrl = entry.get();
+
+      // it may have been fetched a long time ago and have expired in the meantime
+      if (isExpiring(presignedUrl)) {
+        synchronized (this) {
+          entry = submit(partNumber);
+          taking.put(partNumber, entry);
+        }
+        presignedUrl = entry.get();
+      }
+
+      return presignedUrl.url;
+    } finally {
+      synchronized (this) {
+        taking.remove(partNumber);
+      }
+    }
+  }
+
+  /*
+   * Fetches again all the cached URLs which are about to expire.
+   */
+  synchronized void refreshExpiring() {
+    for (Map.Entry<Integer, Future<PresignedUrl>> entry : entries.entrySet()) {
+      if (isExpiring(entry.getValue())) {
+        entry.setValue(submit(entry.getKey()));
+      }
+    }
+  }
+
+  /*
+   * Cancels all the fetches, including the ones parts are waiting for in take(), which then
+   * throw a CancellationException.
+   */
+  synchronized void clear() {
+    for (Iterator<Future<PresignedUrl>> it = entries.values().iterator(); it.hasNext(); ) {
+      it.next().cancel(true);
+      it.remove();
+    }
+    for (Future<PresignedUrl> entry : taking.values()) {
+      entry.cancel(true);
+    }
+  }
+
+  private Future<PresignedUrl> submit(final int partNumber) {
+    return executor.submit(new Callable<PresignedUrl>() {
+      @Override
+      public PresignedUrl call() throws Exception {
+        long fetchedAt = System.currentTimeMillis();
+        PresignedUrl presignedUrl = fetcher.fetch(partNumber);
+        presignedUrl.fetchedAt = fetchedAt;
+        return presignedUrl;
+      }
+    });
+  }
+
+  /*
+   * A failed fetch is considered expired too, so that it gets retried.
+   */
+  private boolean isExpiring(Future<PresignedUrl> entry) {
+    if (!entry.isDone()) return false;
+
+    try {
+      return isExpiring(entry.get());
+    } catch (Exception exc) {
+      return true;
+    }
+  }
+
+  private boolean isExpiring(PresignedUrl presignedUrl) {
+    long margin = Math.min(expiryMargin, (presignedUrl.expiresAt - presignedUrl.fetchedAt) / 2);
+    return presignedUrl.expiresAt - Math.max(0, margin) <= System.currentTimeMillis();
+  }
+
+  /*
+   * Gets the expiry of an S3 presigned URL, from its query parameters. Both signature version 4
+   * (X-Amz-Date and X-Amz-Expires) and version 2 (Expires) URLs are supported.
+   * Returns the default time to live if the URL doesn't contain the expiry.
+   */
+  static long expiryOf(String url, long fetchedAt) {
+    try {
+      Uri uri = Uri.parse(url);
+
+      String amzDate = uri.getQueryParameter("X-Amz-Date");
+      String amzExpires = uri.getQueryParameter("X-Amz-Expires");
+      if (amzDate != null && amzExpires != null) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.parse(amzDate).getTime() + Long.parseLong(amzExpires) * 1000;
+      }
+
+      String expires = uri.getQueryParameter("Expires");
+      if (expires != null) {
+        return Long.parseLong(expires) * 1000;
+      }
+    } catch (NumberFormatException | ParseException exc) {
+      Log.e(TAG, "Unable to get the expiry of the presigned URL", exc);
+    }
+
+    return fetchedAt + DEFAULT_TIME_TO_LIVE;
+  }
+}
@@ -0,0 +1,106 @@
+package com.vydia.RNUploader;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Coalesces the progress events of all the uploads into a single progressBatch event, sent at
+ * most every interval, so many concurrent uploads don't flood the bridge with one message per
+ * upload per tick. Only the latest progress of each upload is kept. The pending batch is sent
+ * before any other event, so a completed, error or cancelled event is never followed by a stale
+ * progress of the same upload. Progress events which complete a part of a multipart upload carry
+ * its md5, so they are never replaced: they are sent right away, after the pending batch.
+ */
+class ProgressEventBatcher {
+
+  /**
+   * Default time between two batches, in milliseconds.
+   */
+  static final long DEFAULT_INTERVAL = 250;
+
+  private final UploaderModule module;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final Map<String, WritableMap> pending = new LinkedHashMap<>();
+  private long interval = DEFAULT_INTERVAL;
+  private boolean flushScheduled = false;
+
+  private final Runnable flushRunnable = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (ProgressEventBatcher.this) {
+        flushScheduled = false;
+        flush();
+      }
+    }
+  };
+
+  ProgressEventBatcher(UploaderModule module) {
+    this.module = module;
+  }
+
+  /*
+   * Sets the time between two batches, in milliseconds. 0 or less sends every progress event
+   * right away, without batching.
+   */
+  synchronized void setInterval(long interval) {
+    this.interval = interval;
+
+    if (interval <= 0) {
+      flush();
+    }
+  }
+
+  /*
+   * Queues a progress event, replacing the pending one of the same upload.
+   */
+  synchronized void progress(WritableMap params) {
+    if (interval <= 0) {
+      module.emit("progress", params);
+      return;
+    }
+
+    if (params.hasKey("md5")) {
+      event("progress", params);
+      return;
+    }
+
+    String id = params.getString("id");
+    // re-inserted, so the batch follows the order of the latest updates
+    pending.remove(id);
+    pending.put(id, params);
+
+    if (!flushScheduled) {
+      flushScheduled = true;
+      handler.postDelayed(flushRunnable, interval);
+    }
+  }
+
+  /*
+   * Sends any other event right after the pending batch. The lock is held while emitting, so
+   * no batch can be sent in between by another thread.
+   */
+  synchronized void event(String eventName, WritableMap params) {
+    flush();
+    module.emit(eventName, params);
+  }
+
+  private void flush() {
+    if (pending.isEmpty())
+      return;
+
+    WritableArray batch = Arguments.createArray();
+    for (WritableMap params : pending.values()) {
+      batch.pushMap(params);
+    }
+    pending.clear();
+
+    module.emit("progressBatch", batch);
+  }
+}
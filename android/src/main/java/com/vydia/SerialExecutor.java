@@ -0,0 +1,43 @@
+package com.vydia.RNUploader;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one at a time, in submission order, on the threads of another executor.
+ * Used to confine the state of each multipart upload to a single logical thread, while all the
+ * uploads share the same pool.
+ */
+class SerialExecutor implements Executor {
+  private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+  private final Executor executor;
+  private Runnable active;
+
+  SerialExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public synchronized void execute(final Runnable task) {
+    tasks.offer(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } finally {
+          scheduleNext();
+        }
+      }
+    });
+
+    if (active == null) {
+      scheduleNext();
+    }
+  }
+
+  private synchronized void scheduleNext() {
+    if ((active = tasks.poll()) != null) {
+      executor.execute(active);
+    }
+  }
+}
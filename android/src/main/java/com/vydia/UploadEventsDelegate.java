@@ -0,0 +1,87 @@
+package com.vydia.RNUploader;
+
+import android.content.Context;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import net.gotev.uploadservice.ServerResponse;
+import net.gotev.uploadservice.UploadInfo;
+import net.gotev.uploadservice.UploadProgressDelegate;
+import net.gotev.uploadservice.UploadStatusDelegate;
+
+/**
+ * Sends the events of an upload started with startUpload to JS, or of all the uploads restored
+ * after the process has been killed, when subscribed to the UploadEventBus.
+ * The progress is received as a snapshot of primitives, so the upload service doesn't build
+ * a full UploadInfo for every progress event.
+ */
+class UploadEventsDelegate implements UploadStatusDelegate, UploadProgressDelegate {
+  private final UploaderModule module;
+  private final String customUploadId;
+
+  UploadEventsDelegate(UploaderModule module, String customUploadId) {
+    this.module = module;
+    this.customUploadId = customUploadId;
+  }
+
+  private String idOf(String uploadId) {
+    return customUploadId != null ? customUploadId : uploadId;
+  }
+
+  @Override
+  public void onProgress(Context context, String uploadId, long uploadedBytes, long totalBytes, long timestamp) {
+    WritableMap params = Arguments.createMap();
+    params.putString("id", idOf(uploadId));
+    params.putInt("progress", totalBytes == 0 ? 0 : (int) (uploadedBytes * 100 / totalBytes)); //0-100
+    params.putBoolean("waitingForNetwork", false);
+    module.sendEvent("progress", params);
+  }
+
+  @Override
+  public void onProgress(Context context, UploadInfo uploadInfo) {
+    WritableMap params = Arguments.createMap();
+    params.putString("id", idOf(uploadInfo.getUploadId()));
+    params.putInt("progress", uploadInfo.getProgressPercent()); //0-100
+    params.putBoolean("waitingForNetwork", uploadInfo.isWaitingForNetwork());
+    module.sendEvent("progress", params);
+  }
+
+  @Override
+  public void onError(Context context, UploadInfo uploadInfo, ServerResponse serverResponse, Exception exception) {
+    WritableMap params = Arguments.createMap();
+    params.putString("id", idOf(uploadInfo.getUploadId()));
+    if (serverResponse != null) {
+      params.putInt("responseCode", serverResponse.getHttpCode());
+      params.putString("responseBody", serverResponse.getBodyAsString());
+    }
+
+    // Make sure we do not try to call getMessage() on a null object
+    if (exception != null){
+      params.putString("error", exception.getMessage());
+    } else {
+      params.putString("error", "Unknown exception");
+    }
+
+    module.sendEvent("error", params);
+    module.removeUploadDelegate(uploadInfo.getUploadId());
+  }
+
+  @Override
+  public void onCompleted(Context context, UploadInfo uploadInfo, ServerResponse serverResponse) {
+    WritableMap params = Arguments.createMap();
+    params.putString("id", idOf(uploadInfo.getUploadId()));
+    params.putInt("responseCode", serverResponse.getHttpCode());
+    params.putString("responseBody", serverResponse.getBodyAsString());
+    module.sendEvent("completed", params);
+    module.removeUploadDelegate(uploadInfo.getUploadId());
+  }
+
+  @Override
+  public void onCancelled(Context context, UploadInfo uploadInfo) {
+    WritableMap params = Arguments.createMap();
+    params.putString("id", idOf(uploadInfo.getUploadId()));
+    module.sendEvent("cancelled", params);
+    module.removeUploadDelegate(uploadInfo.getUploadId());
+  }
+}
@@ -1,8 +1,6 @@
 package com.vydia.RNUploader;
 
-import android.content.Context;
 import androidx.annotation.Nullable;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
@@ -12,9 +10,11 @@ import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.ReadableType;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
@@ -22,25 +22,34 @@ import com.facebook.react.modules.core.DeviceEventManagerModule;
 import net.gotev.uploadservice.BinaryUploadRequest;
 import net.gotev.uploadservice.HttpUploadRequest;
 import net.gotev.uploadservice.MultipartUploadRequest;
+import net.gotev.uploadservice.ProgressPolicy;
+import net.gotev.uploadservice.ResumableUploadRequest;
 import net.gotev.uploadservice.ServerResponse;
-import net.gotev.uploadservice.UploadInfo;
+import net.gotev.uploadservice.UploadEventBus;
 import net.gotev.uploadservice.UploadNotificationConfig;
 import net.gotev.uploadservice.UploadService;
-import net.gotev.uploadservice.UploadStatusDelegate;
+import net.gotev.uploadservice.UploadTaskParameters;
+import net.gotev.uploadservice.okhttp.OkHttpClients;
 import net.gotev.uploadservice.okhttp.OkHttpStack;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import okhttp3.FormBody;
 import okhttp3.MediaType;
@@ -54,13 +63,36 @@ import okhttp3.Response;
  */
 public class UploaderModule extends ReactContextBaseJavaModule {
   private static final String TAG = "UploaderBridge";
+  private static final int PRESIGN_THREADS = 4;
 
-  private UploadStatusDelegate statusDelegate;
+
+  private final ConcurrentMap<String, MultipartUploadSession> multipartUploads = new ConcurrentHashMap<>();
+
+  // the upload service keeps only weak references to the delegates, so they're kept here until
+  // their upload completes, fails or is cancelled
+  private final ConcurrentMap<String, UploadEventsDelegate> uploadDelegates = new ConcurrentHashMap<>();
+
+  // receives the events of the uploads without a delegate, i.e. the ones restored by the upload
+  // service after the process has been killed
+  private final UploadEventsDelegate restoredUploadsDelegate = new UploadEventsDelegate(this, null);
+  private final ExecutorService presignExecutor = Executors.newFixedThreadPool(PRESIGN_THREADS);
+
+  // prepares the multipart upload parts, which involves network and disk I/O
+  private final ExecutorService partExecutor = Executors.newCachedThreadPool();
+
+  private final ProgressEventBatcher progressBatcher = new ProgressEventBatcher(this);
 
   public UploaderModule(ReactApplicationContext reactContext) {
     super(reactContext);
     UploadService.NAMESPACE = reactContext.getApplicationInfo().packageName;
     UploadService.HTTP_STACK = new OkHttpStack();
+    UploadEventBus.subscribe(restoredUploadsDelegate);
+  }
+
+  @Override
+  public void onCatalystInstanceDestroy() {
+    super.onCatalystInstanceDestroy();
+    UploadEventBus.unsubscribe(restoredUploadsDelegate);
   }
 
   @Override
@@ -69,10 +101,21 @@ public class UploaderModule extends ReactContextBaseJavaModule {
   }
 
   /*
-  Sends an event to the JS module.
+  Sends an event to the JS module. Progress events are coalesced into batches.
    */
-  private void sendEvent(String eventName, @Nullable WritableMap params) {
-    this.getReactApplicationContext().getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit("RNFileUploader-" + eventName, params);
+  void sendEvent(String eventName, @Nullable WritableMap params) {
+    if ("progress".equals(eventName) && params != null) {
+      progressBatcher.progress(params);
+    } else {
+      progressBatcher.event(eventName, params);
+    }
+  }
+
+  /*
+  Emits an event to the JS module right away.
+   */
+  void emit(String eventName, @Nullable Object data) {
+    this.getReactApplicationContext().getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit("RNFileUploader-" + eventName, data);
   }
 
   /*
@@ -106,176 +149,15 @@ public class UploaderModule extends ReactContextBaseJavaModule {
     }
   }
 
-  class ChunkFileTask extends AsyncTask<Integer, Void, String> {
-
-    private String currentFile, newPath;
-    private long position;
-    private IOException error;
-    private long length;
-
-    public ChunkFileTask(String currentFile, String newPath, long position, long length) {
-      this.currentFile = currentFile;
-      this.newPath = newPath;
-      this.position = position;
-      this.length = length;
-      if (this.currentFile.startsWith("file://")) {
-        this.currentFile = this.currentFile.replace("file://", "");
-      }
-      if (this.newPath.startsWith("file://")) {
-        this.newPath = this.newPath.replace("file://", "");
-      }
-    }
-
-    @Override
-    protected String doInBackground(Integer... params) {
-      FileInputStream fis = null;
-      FileOutputStream fos = null;
-      try {
-        // Log.d("ChunkFileTask", "Start split file => : " + this.currentFile + "  with index : " + this.position);
-
-        File file = new File(currentFile);
-        if (!file.exists()) {
-          this.error = new FileNotFoundException("File not existed");
-          return "ERROR";
-        }
-        long fileSize = file.length();
-        File newFile = new File(newPath);
-        if (newFile.exists()) {
-          newFile.delete();
-        }
-        newFile.createNewFile();
-
-        //Log.d("ChunkFileTask", "Current file size :" + fileSize);
-        //Log.d("ChunkFileTask", "Remain file size should be :" + (fileSize - position - 1));
-
-        fis = new FileInputStream(currentFile);
-        int size = 1 * 1024 * 1014; //1 mb
-
-        if (position + length > fileSize) {
-          length = fileSize - position;
-        }
-        int totalBytesRead = 0;
-
-        byte buffer[] = new byte[size];
-        fis.skip(position);
-
-        fos = new FileOutputStream(newPath);
-
-        //Log.d("ChunkFileTask", "position=" + position + " length=" + length);
-
-        while (totalBytesRead < length) {
-          if (size + totalBytesRead > length && totalBytesRead < length) {
-            size = (int) (length - totalBytesRead);
-          }
-          int bytesRead = fis.read(buffer, 0, size);
-          if (bytesRead == -1 || totalBytesRead >= length) {
-            fos.close();
-            break;
-          }
-          totalBytesRead += bytesRead;
-          fos.write(buffer, 0, bytesRead);
-          fos.flush();
-        }
-
-        //Log.d("ChunkFileTask", "totalBytesRead :" + totalBytesRead);
-        //Log.d("ChunkFileTask", "Remain file size :" + newFile.length());
-        //Log.d("ChunkFileTask", "Split file success => " + newPath);
-
-      } catch (FileNotFoundException e) {
-        //Log.d("ChunkFileTask", "Split file error " + e.getLocalizedMessage());
-
-        this.error = e;
-        return null;
-      } catch (IOException e) {
-
-        //Log.d("ChunkFileTask", "Split file error " + e.getLocalizedMessage());
-        this.error = e;
-        return null;
-
-      } finally {
-        if (fis != null) {
-          try {
-            fis.close();
-          } catch (IOException e) {
-            //Log.d("ChunkFileTask", "Split file error " + e.getLocalizedMessage());
-            this.error = e;
-          }
-        }
-        if (fos != null) {
-          try {
-            fos.close();
-          } catch (IOException e) {
-            //Log.d("ChunkFileTask", "Split file error " + e.getLocalizedMessage());
-            this.error = e;
-          }
-        }
-      }
-
-      return hash(this.newPath, "md5");
-    }
-
-    @Override
-    protected void onPostExecute(String result) {
-
-    }
-  }
-  class GetPresignUrlTask extends AsyncTask<String, Void, String> {
-    private String mUrl;
-    private String mFileName;
-    private String mS3UploadId;
-    private String mAccessToken;
-    private int partNumber;
-    private OkHttpClient mClient;
-
-    public GetPresignUrlTask(String url, String fileName, String s3UploadId, int partNumber, String accessToken) {
-      this.mUrl = url;
-      this.mFileName = fileName;
-      this.mS3UploadId = s3UploadId;
-      this.mAccessToken = accessToken;
-      this.partNumber = partNumber;
-    }
-
-    @Override
-    protected void onPreExecute() {
-      super.onPreExecute();
-      this.mClient = new OkHttpClient();
-    }
-
-    @Override
-    protected String doInBackground(String... strings) {
-
-      RequestBody requestBody = new FormBody.Builder()
-          .add("videoName", this.mFileName)
-          .add("uploadId", this.mS3UploadId)
-          .add("partNumber", String.valueOf(this.partNumber))
-          .build();
-      //Log.d(TAG, "url: " + this.mUrl);
-      Request request = new Request.Builder()
-          .url(this.mUrl)
-          .addHeader("Content-Type", "application/x-www-form-urlencoded")
-          .addHeader("Authorization", "Bearer " + this.mAccessToken)
-          .post(requestBody)
-          .build();
-      try (Response response = mClient.newCall(request).execute()) {
-        String jsonData = response.body().string();
-        //Log.d(TAG, jsonData);
-        JSONObject jsonObject = new JSONObject(jsonData);
-        return jsonObject.getString("presignedUrl");
-      } catch (IOException e) {
-        e.printStackTrace();
-      } catch (JSONException e) {
-        e.printStackTrace();
-      }
-      return null;
-    }
-
-    @Override
-    protected void onPostExecute(String s) {
-      super.onPostExecute(s);
-    }
+  public String hash(String filepath, String algorithm) {
+    return hash(filepath, algorithm, 0, -1);
   }
 
-  public String hash(String filepath, String algorithm) {
+  /*
+  Hashes length bytes of the file starting at offset, or the whole file if length is -1.
+   */
+  public String hash(String filepath, String algorithm, long offset, long length) {
+    FileInputStream inputStream = null;
     try {
       Map<String, String> algorithms = new HashMap<>();
 
@@ -300,12 +182,15 @@ public class UploaderModule extends ReactContextBaseJavaModule {
 
       MessageDigest md = MessageDigest.getInstance(algorithms.get(algorithm));
 
-      FileInputStream inputStream = new FileInputStream(filepath);
+      inputStream = new FileInputStream(filepath);
+      inputStream.getChannel().position(offset);
+      long remaining = length < 0 ? Long.MAX_VALUE : length;
       byte[] buffer = new byte[1024 * 10]; // 10 KB Buffer
 
       int read;
-      while ((read = inputStream.read(buffer)) != -1) {
+      while (remaining > 0 && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
         md.update(buffer, 0, read);
+        remaining -= read;
       }
 
       StringBuilder hexString = new StringBuilder();
@@ -316,68 +201,100 @@ public class UploaderModule extends ReactContextBaseJavaModule {
     } catch (Exception ex) {
       ex.printStackTrace();
       return null;
+    } finally {
+      if (inputStream != null) {
+        try {
+          inputStream.close();
+        } catch (IOException ignored) { }
+      }
     }
   }
 
-  private String getPresignUrl(String url, String fileName, String s3UploadId, int partNumber, String accessToken) throws IOException, JSONException {
-    OkHttpClient client = new OkHttpClient();
+  /*
+   * Fetches the presigned URL to use to upload the given part of a multipart upload.
+   * The auth server may tell how long the URL is valid with an "expiresIn" field, in seconds,
+   * otherwise the expiry is read from the URL itself.
+   */
+  PresignedUrlCache.PresignedUrl fetchPresignUrl(ReadableMap options, int partNumber) throws IOException, JSONException {
+    OkHttpClient client = OkHttpClients.get(OkHttpClients.Purpose.PRESIGN);
 
     RequestBody requestBody = new FormBody.Builder()
-        .add("videoName", fileName)
-        .add("uploadId", s3UploadId)
+        .add("videoName", options.getString("fileName"))
+        .add("uploadId", options.getString("s3UploadId"))
         .add("partNumber", String.valueOf(partNumber))
         .build();
     //Log.d(TAG, "url: " + url);
     Request request = new Request.Builder()
-        .url(url)
+        .url(options.getString("getPresignUrl"))
         .addHeader("Content-Type", "application/x-www-form-urlencoded")
-        .addHeader("Authorization", "Bearer " + accessToken)
+        .addHeader("Authorization", "Bearer " + options.getString("accessToken"))
         .post(requestBody)
         .build();
+    long fetchedAt = System.currentTimeMillis();
     try (Response response = client.newCall(request).execute()) {
+      if (!response.isSuccessful()) {
+        throw new IOException("Presigned URL request for part " + partNumber + " failed with HTTP " + response.code());
+      }
       String jsonData = response.body().string();
       //Log.d(TAG, jsonData);
       JSONObject jsonObject = new JSONObject(jsonData);
-      return jsonObject.getString("presignedUrl");
+      String presignedUrl = jsonObject.getString("presignedUrl");
+      long expiresAt = jsonObject.has("expiresIn")
+          ? fetchedAt + jsonObject.getLong("expiresIn") * 1000
+          : PresignedUrlCache.expiryOf(presignedUrl, fetchedAt);
+      return new PresignedUrlCache.PresignedUrl(presignedUrl, expiresAt);
     }
   }
 
   /*
-   * Starts a file upload.
-   * Returns a promise with the string ID of the upload.
+   * Returns the description of the first invalid option, or null if the options are valid.
    */
-  @ReactMethod
-  public void startMultiPartUpload(ReadableMap options, final Promise promise) {
-    //Log.d(TAG, "startMultiPartUpload");
+  private String checkMultiPartUploadOptions(ReadableMap options) {
     for (String key : new String[]{"path", "fileName", "getPresignUrl", "accessToken", "s3UploadId"}) {
       if (!options.hasKey(key)) {
-        promise.reject(new IllegalArgumentException("Missing '" + key + "' field."));
-        return;
+        return "Missing '" + key + "' field.";
       }
       if (options.getType(key) != ReadableType.String) {
-        promise.reject(new IllegalArgumentException(key + " must be a string."));
-        return;
+        return key + " must be a string.";
+      }
+    }
+    for (String key : new String[]{"completeUrl", "completeType"}) {
+      if (options.hasKey(key) && options.getType(key) != ReadableType.String) {
+        return key + " must be a string.";
       }
     }
+    if (options.hasKey("completeType") && !options.getString("completeType").equals("json")
+        && !options.getString("completeType").equals("s3")) {
+      return "completeType should be string: json or s3.";
+    }
+
+    for (String key : new String[]{"adaptivePartSize", "contentMd5", "unmeteredNetworkOnly"}) {
+      if (options.hasKey(key) && options.getType(key) != ReadableType.Boolean) {
+        return key + " must be a boolean.";
+      }
+    }
+    // the part layout is computed while uploading in adaptive mode
+    boolean adaptive = options.hasKey("adaptivePartSize") && options.getBoolean("adaptivePartSize");
     for (String key : new String[]{"beginPart", "totalPart", "partSize"}) {
       if (!options.hasKey(key)) {
-        promise.reject(new IllegalArgumentException("Missing '" + key + "' field."));
-        return;
+        if (adaptive && !key.equals("partSize")) continue;
+        return "Missing '" + key + "' field.";
       }
       if (options.getType(key) != ReadableType.Number) {
-        promise.reject(new IllegalArgumentException(key + " must be a number."));
-        return;
+        return key + " must be a number.";
       }
     }
 
     if (options.hasKey("headers") && options.getType("headers") != ReadableType.Map) {
-      promise.reject(new IllegalArgumentException("headers must be a hash."));
-      return;
+      return "headers must be a hash.";
     }
 
     if (options.hasKey("notification") && options.getType("notification") != ReadableType.Map) {
-      promise.reject(new IllegalArgumentException("notification must be a hash."));
-      return;
+      return "notification must be a hash.";
+    }
+
+    if (options.hasKey("priority") && priorityOf(options) == null) {
+      return "priority should be string: low, normal or high.";
     }
 
     String requestType = "raw";
@@ -385,193 +302,284 @@ public class UploaderModule extends ReactContextBaseJavaModule {
     if (options.hasKey("type")) {
       requestType = options.getString("type");
       if (requestType == null) {
-        promise.reject(new IllegalArgumentException("type must be string."));
-        return;
+        return "type must be string.";
       }
 
       if (!requestType.equals("raw") && !requestType.equals("multipart")) {
-        promise.reject(new IllegalArgumentException("type should be string: raw or multipart."));
-        return;
+        return "type should be string: raw or multipart.";
       }
     }
 
-    WritableMap notification = new WritableNativeMap();
-    notification.putBoolean("enabled", true);
-
-    if (options.hasKey("notification")) {
-      notification.merge(options.getMap("notification"));
+    for (String key : new String[]{"maxConcurrentParts", "presignPrefetchCount", "presignExpiryMargin", "maxPartSize", "targetPartDuration"}) {
+      if (options.hasKey(key) && options.getType(key) != ReadableType.Number) {
+        return key + " must be a number.";
+      }
     }
 
-    String filePath = options.getString("path");
-    String method = options.hasKey("method") && options.getType("method") == ReadableType.String ? options.getString("method") : "POST";
+    return null;
+  }
+
+  /*
+   * Starts a file upload.
+   * Returns a promise with the string ID of the upload.
+   */
+  @ReactMethod
+  public void startMultiPartUpload(ReadableMap options, final Promise promise) {
+    //Log.d(TAG, "startMultiPartUpload");
+    String error = checkMultiPartUploadOptions(options);
+    if (error != null) {
+      promise.reject(new IllegalArgumentException(error));
+      return;
+    }
 
-    final String customUploadId = options.hasKey("customUploadId") && options.getType("method") == ReadableType.String ? options.getString("customUploadId") : null;
+    String uploadId = options.hasKey("customUploadId") && options.getType("customUploadId") == ReadableType.String
+        ? options.getString("customUploadId") : UUID.randomUUID().toString();
 
+    MultipartUploadSession session;
     try {
+      session = new MultipartUploadSession(this, uploadId, options);
+    } catch (Exception exc) {
+      Log.e(TAG, exc.getMessage(), exc);
+      promise.reject(exc);
+      return;
+    }
+
+    if (multipartUploads.putIfAbsent(uploadId, session) != null) {
+      promise.reject(new IllegalArgumentException("An upload with ID " + uploadId + " is already running."));
+      return;
+    }
+
+    // the journal is written and the parts are prepared on the part executor, failures from
+    // there on are reported with the error event
+    session.start(getReactApplicationContext());
+    promise.resolve(uploadId);
+  }
 
-      int beginPart = options.getInt("beginPart");
-      int totalPart = options.getInt("totalPart");
-      int partSize = options.getInt("partSize");
-      String accessToken = options.getString("accessToken");
-      File fileInfo = new File(filePath);
-      //Log.d(TAG, "file exist: " + fileInfo.exists());
-      //Log.d(TAG, "filePath: " + filePath);
-      final long totalSize = fileInfo.length();
+  /*
+   * Resumes a multipart upload which has been interrupted, e.g. because the app process has been
+   * killed or a part has failed. Only the parts which are not in the upload journal are uploaded.
+   * options must contain a new accessToken, and may override any other option the upload has been
+   * started with.
+   * Returns a promise with the string ID of the upload.
+   */
+  @ReactMethod
+  public void resumeMultiPartUpload(final String uploadId, final ReadableMap options, final Promise promise) {
+    // the journal is read from disk, so not on the bridge thread
+    partExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (multipartUploads.containsKey(uploadId)) {
+            promise.reject(new IllegalArgumentException("An upload with ID " + uploadId + " is already running."));
+            return;
+          }
 
-      //Log.d(TAG, "beginPart: " + beginPart);
+          MultipartUploadJournal journal = MultipartUploadJournal.open(getReactApplicationContext(), uploadId);
+          if (journal == null) {
+            promise.reject(new IllegalArgumentException("No resumable upload with ID " + uploadId + "."));
+            return;
+          }
 
-      //Log.d(TAG, "totalSize: " + totalSize);
+          WritableMap resumeOptions = Arguments.createMap();
+          resumeOptions.merge(journal.getOptions());
+          resumeOptions.merge(options);
 
-      String getPresignUrl = options.getString("getPresignUrl");
-      String fileName = options.getString("fileName");
-      String s3UploadId = options.getString("s3UploadId");
+          String error = checkMultiPartUploadOptions(resumeOptions);
+          if (error != null) {
+            promise.reject(new IllegalArgumentException(error));
+            return;
+          }
 
-      uploartPart(options, beginPart);
+          MultipartUploadSession session = new MultipartUploadSession(UploaderModule.this, uploadId, resumeOptions);
+          if (multipartUploads.putIfAbsent(uploadId, session) != null) {
+            promise.reject(new IllegalArgumentException("An upload with ID " + uploadId + " is already running."));
+            return;
+          }
 
-      promise.resolve(customUploadId);
-    } catch (Exception exc) {
-      Log.e(TAG, exc.getMessage(), exc);
-      promise.reject(exc);
-    }
+          session.resume(journal);
+          promise.resolve(uploadId);
+        } catch (Exception exc) {
+          Log.e(TAG, exc.getMessage(), exc);
+          promise.reject(exc);
+        }
+      }
+    });
   }
 
-  private void uploartPart(final ReadableMap options, final int currentPart) throws IOException, JSONException {
+  /*
+   * Lists the multipart uploads which can be resumed with resumeMultiPartUpload.
+   * Returns a promise with an array of {id, s3UploadId, totalPart, uploadedParts}.
+   */
+  @ReactMethod
+  public void getResumableMultiPartUploads(final Promise promise) {
+    // the journals are read from disk, so not on the bridge thread
+    partExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        WritableArray uploads = Arguments.createArray();
+
+        for (MultipartUploadJournal journal : MultipartUploadJournal.list(getReactApplicationContext())) {
+          if (multipartUploads.containsKey(journal.getUploadId())) continue;
+
+          ReadableMap options = journal.getOptions();
+          WritableMap upload = Arguments.createMap();
+          upload.putString("id", journal.getUploadId());
+          upload.putString("s3UploadId", options.getString("s3UploadId"));
+          if (options.hasKey("totalPart")) {
+            upload.putInt("totalPart", options.getInt("totalPart"));
+          }
+          upload.putInt("uploadedParts", journal.getUploadedParts().size());
+          uploads.pushMap(upload);
+        }
 
+        promise.resolve(uploads);
+      }
+    });
+  }
 
-    WritableMap notification = new WritableNativeMap();
-    notification.putBoolean("enabled", true);
+  /*
+   * Called by a multipart upload session once it has completed, failed or has been cancelled.
+   */
+  void onMultipartUploadFinished(String uploadId) {
+    multipartUploads.remove(uploadId);
+  }
 
-    if (options.hasKey("notification")) {
-      notification.merge(options.getMap("notification"));
-    }
+  ExecutorService getPresignExecutor() {
+    return presignExecutor;
+  }
 
-    String requestType = "raw";
+  ExecutorService getPartExecutor() {
+    return partExecutor;
+  }
 
-    if (options.hasKey("type")) {
-      requestType = options.getString("type");
-    }
+  private static boolean isUnmeteredNetworkOnly(ReadableMap options) {
+    return options.hasKey("unmeteredNetworkOnly") && options.getBoolean("unmeteredNetworkOnly");
+  }
 
+  /*
+   * Gets the progress policy from the progressPolicy option, which is the default one if not set.
+   * Throws IllegalArgumentException if the option is not valid.
+   */
+  private static ProgressPolicy progressPolicyOf(ReadableMap options) {
+    ProgressPolicy progressPolicy = new ProgressPolicy();
+    if (!options.hasKey("progressPolicy")) return progressPolicy;
 
-    String filePath = options.getString("path");
-    String method = options.hasKey("method") && options.getType("method") == ReadableType.String ? options.getString("method") : "POST";
+    if (options.getType("progressPolicy") != ReadableType.Map) {
+      throw new IllegalArgumentException("progressPolicy must be a hash.");
+    }
 
-    final String customUploadId = options.hasKey("customUploadId") && options.getType("method") == ReadableType.String ? options.getString("customUploadId") : null;
-
-    final int totalPart = options.getInt("totalPart");
-    int partSize = options.getInt("partSize");
-    String accessToken = options.getString("accessToken");
-    File fileInfo = new File(filePath);
-    //Log.d(TAG, "file exist: " + fileInfo.exists());
-    //Log.d(TAG, "filePath: " + filePath);
-    final long totalSize = fileInfo.length();
-
-    String getPresignUrl = options.getString("getPresignUrl");
-    String fileName = options.getString("fileName");
-    String s3UploadId = options.getString("s3UploadId");
-
-    String presignUrl = null;
-    if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
-//      presignUrl = getPresignUrl(getPresignUrl, fileName, s3UploadId, currentPart, accessToken);
-      try {
-        presignUrl = new GetPresignUrlTask(getPresignUrl, fileName, s3UploadId, currentPart, accessToken).execute().get();
-      } catch (ExecutionException e) {
-        e.printStackTrace();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      }
-      //Log.d(TAG, "presignUrl: " + presignUrl);
-    }
-
-    String tempFilePath = getReactApplicationContext().getCacheDir().getAbsolutePath() + "/" + fileName + "_" + currentPart;
-
-    //Log.d(TAG, "tempFilePath: " + tempFilePath);
-    //Log.d(TAG, "totalSize: " + totalSize);
-    long length;
-    if (totalPart == currentPart) {
-      length = totalSize - partSize * (currentPart - 1);
-      //Log.d(TAG, "length: " + length);
-    } else {
-      length = partSize;
+    ReadableMap policy = options.getMap("progressPolicy");
+
+    for (String key : new String[]{"minInterval", "minBytes", "minPercent"}) {
+      if (policy.hasKey(key) && policy.getType(key) != ReadableType.Number) {
+        throw new IllegalArgumentException("progressPolicy." + key + " must be a number.");
+      }
     }
-    final long position = (currentPart - 1) * partSize;
 
-    String fileMD5 = null;
-    try {
-      fileMD5 = new ChunkFileTask(filePath, tempFilePath, position, length).execute().get();
-    } catch (ExecutionException e) {
-      e.printStackTrace();
-    } catch (InterruptedException e) {
-      e.printStackTrace();
+    if (policy.hasKey("terminalEventsOnly") && policy.getType("terminalEventsOnly") != ReadableType.Boolean) {
+      throw new IllegalArgumentException("progressPolicy.terminalEventsOnly must be a boolean.");
     }
 
-    final String finalFileMD = fileMD5;
-    statusDelegate = new UploadStatusDelegate() {
-      @Override
-      public void onProgress(Context context, UploadInfo uploadInfo) {
-        // ((position + (data.progress * length) / 100) * 100) / totalSize,
-        WritableMap params = Arguments.createMap();
-        params.putString("id", customUploadId != null ? customUploadId : uploadInfo.getUploadId());
-        //Log.d(TAG, "position=" + position + ", uploadedBytes=" + uploadInfo.getUploadedBytes() + ", totalSize=" + totalSize);
-        double percent = (position + uploadInfo.getUploadedBytes()) * 100 / totalSize;
-        //Log.d(TAG, "percent=" + percent + ", plus=" + (position + uploadInfo.getUploadedBytes()));
-        params.putInt("progress", (int) percent);
-        params.putInt("currentPart", currentPart);
-        params.putString("md5", finalFileMD);
+    if (policy.hasKey("minInterval")) progressPolicy.setMinInterval((long) policy.getDouble("minInterval"));
+    if (policy.hasKey("minBytes")) progressPolicy.setMinBytes((long) policy.getDouble("minBytes"));
+    if (policy.hasKey("minPercent")) progressPolicy.setMinPercent((int) policy.getDouble("minPercent"));
+    if (policy.hasKey("terminalEventsOnly")) progressPolicy.setTerminalEventsOnly(policy.getBoolean("terminalEventsOnly"));
 
-        sendEvent("progress", params);
-      }
+    return progressPolicy;
+  }
 
-      @Override
-      public void onError(Context context, UploadInfo uploadInfo, ServerResponse serverResponse, Exception exception) {
-        WritableMap params = Arguments.createMap();
-        params.putString("id", customUploadId != null ? customUploadId : uploadInfo.getUploadId());
-        if (serverResponse != null) {
-          params.putInt("responseCode", serverResponse.getHttpCode());
-          params.putString("responseBody", serverResponse.getBodyAsString());
-        }
+  /*
+   * Gets the upload priority from the priority option, which is normal if not set.
+   * Returns null if the option is not valid.
+   */
+  private static Integer priorityOf(ReadableMap options) {
+    if (!options.hasKey("priority")) return UploadTaskParameters.PRIORITY_NORMAL;
+    if (options.getType("priority") != ReadableType.String) return null;
+
+    switch (options.getString("priority")) {
+      case "low":
+        return UploadTaskParameters.PRIORITY_LOW;
+      case "normal":
+        return UploadTaskParameters.PRIORITY_NORMAL;
+      case "high":
+        return UploadTaskParameters.PRIORITY_HIGH;
+      default:
+        return null;
+    }
+  }
 
-        // Make sure we do not try to call getMessage() on a null object
-        if (exception != null){
-          params.putString("error", exception.getMessage());
-        } else {
-          params.putString("error", "Unknown exception");
-        }
+  /*
+   * Completes a multipart upload once all its parts have been uploaded.
+   * With completeType "s3", completeUrl is a presigned CompleteMultipartUpload URL and the body is
+   * the XML which S3 expects. Otherwise completeUrl is an endpoint of the auth server, which gets
+   * the ETags of the parts as JSON and is authenticated with the accessToken, like getPresignUrl.
+   */
+  ServerResponse completeMultipartUpload(ReadableMap options, List<MultipartUploadJournal.Part> parts)
+      throws IOException, JSONException {
+    OkHttpClient client = OkHttpClients.get(OkHttpClients.Purpose.COMPLETION);
+    Request.Builder request = new Request.Builder().url(options.getString("completeUrl"));
 
-        sendEvent("error", params);
+    if ("s3".equals(options.hasKey("completeType") ? options.getString("completeType") : null)) {
+      StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+      for (MultipartUploadJournal.Part part : parts) {
+        xml.append("<Part><PartNumber>").append(part.number).append("</PartNumber>")
+           .append("<ETag>").append(escapeXml(part.etag)).append("</ETag></Part>");
       }
+      xml.append("</CompleteMultipartUpload>");
+      request.post(RequestBody.create(MediaType.parse("application/xml"), xml.toString()));
 
-      @Override
-      public void onCompleted(Context context, UploadInfo uploadInfo, ServerResponse serverResponse) {
-        if (currentPart == totalPart) {
-          WritableMap params = Arguments.createMap();
-          params.putString("id", customUploadId != null ? customUploadId : uploadInfo.getUploadId());
-          params.putInt("responseCode", serverResponse.getHttpCode());
-          params.putString("responseBody", serverResponse.getBodyAsString());
-          sendEvent("completed", params);
-        } else {
-          try {
-            uploartPart(options, currentPart + 1);
-          } catch (IOException e) {
-            e.printStackTrace();
-          } catch (JSONException e) {
-            e.printStackTrace();
-          }
-        }
+    } else {
+      JSONArray jsonParts = new JSONArray();
+      for (MultipartUploadJournal.Part part : parts) {
+        jsonParts.put(new JSONObject().put("PartNumber", part.number).put("ETag", part.etag));
       }
+      JSONObject body = new JSONObject()
+          .put("videoName", options.getString("fileName"))
+          .put("uploadId", options.getString("s3UploadId"))
+          .put("parts", jsonParts);
+      request.addHeader("Authorization", "Bearer " + options.getString("accessToken"))
+             .post(RequestBody.create(MediaType.parse("application/json; charset=utf-8"), body.toString()));
+    }
 
-      @Override
-      public void onCancelled(Context context, UploadInfo uploadInfo) {
-        WritableMap params = Arguments.createMap();
-        params.putString("id", customUploadId != null ? customUploadId : uploadInfo.getUploadId());
-        sendEvent("cancelled", params);
+    try (Response response = client.newCall(request.build()).execute()) {
+      LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+      for (String name : response.headers().names()) {
+        headers.put(name, response.header(name));
       }
-    };
+      return new ServerResponse(response.code(), response.body().bytes(), headers);
+    }
+  }
+
+  private static String escapeXml(String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+
+  /*
+   * Creates the request which uploads length bytes of the file, starting at position, as a
+   * single part of a multipart upload. The request is not started.
+   */
+  HttpUploadRequest<?> createPartRequest(final ReadableMap options, String partUploadId, String presignUrl,
+                                         String filePath, long position, long length) throws IOException {
+    WritableMap notification = new WritableNativeMap();
+    notification.putBoolean("enabled", true);
+
+    if (options.hasKey("notification")) {
+      notification.merge(options.getMap("notification"));
+    }
+
+    String requestType = "raw";
+
+    if (options.hasKey("type")) {
+      requestType = options.getString("type");
+    }
+
+    String method = options.hasKey("method") && options.getType("method") == ReadableType.String ? options.getString("method") : "POST";
 
     HttpUploadRequest<?> request;
 
     if (requestType.equals("raw")) {
-      request = new BinaryUploadRequest(this.getReactApplicationContext(), customUploadId, presignUrl)
-          .setFileToUpload(tempFilePath);
+      request = new BinaryUploadRequest(this.getReactApplicationContext(), partUploadId, presignUrl)
+          .setFileToUpload(filePath, position, length);
     } else {
       if (!options.hasKey("field")) {
         throw new IllegalArgumentException("field is required field for multipart type.");
@@ -581,14 +589,17 @@ public class UploaderModule extends ReactContextBaseJavaModule {
         throw new IllegalArgumentException("field must be string.");
       }
 
-      request = new MultipartUploadRequest(this.getReactApplicationContext(), customUploadId, presignUrl)
-          .addFileToUpload(tempFilePath, options.getString("field"));
+      request = new MultipartUploadRequest(this.getReactApplicationContext(), partUploadId, presignUrl)
+          .addFileToUpload(filePath, position, length, options.getString("field"));
     }
 
 
     request.setMethod(method)
         .setMaxRetries(2)
-        .setDelegate(statusDelegate);
+        .setPriority(priorityOf(options))
+        .setUnmeteredNetworkOnly(isUnmeteredNetworkOnly(options))
+        // resuming the parts is up to the session journal, which knows their ETags
+        .setPersistent(false);
 
     if (notification.getBoolean("enabled")) {
 
@@ -673,7 +684,7 @@ public class UploaderModule extends ReactContextBaseJavaModule {
       }
     }
 
-    String uploadId = request.startUpload();
+    return request;
   }
 
 
@@ -683,25 +694,99 @@ public class UploaderModule extends ReactContextBaseJavaModule {
    */
   @ReactMethod
   public void startUpload(ReadableMap options, final Promise promise) {
+    String uploadId = uploadIdOf(options);
+    try {
+      HttpUploadRequest<?> request = createUploadRequest(options, uploadId);
+      request.startUpload();
+      promise.resolve(uploadId);
+    } catch (Exception exc) {
+      uploadDelegates.remove(uploadId);
+      Log.e(TAG, exc.getMessage(), exc);
+      promise.reject(exc);
+    }
+  }
+
+  /*
+   * Starts many file uploads with a single start of the upload service.
+   * Accepts an array of startUpload options. If any of them is invalid, no upload is started.
+   * Returns a promise with the array of the string IDs of the uploads, in the same order.
+   */
+  @ReactMethod
+  public void startUploads(ReadableArray optionsList, final Promise promise) {
+    List<String> requestIds = new ArrayList<>(optionsList.size());
+    try {
+      List<HttpUploadRequest<?>> requests = new ArrayList<>(optionsList.size());
+
+      for (int i = 0; i < optionsList.size(); i++) {
+        if (optionsList.getType(i) != ReadableType.Map) {
+          throw new IllegalArgumentException("uploads must be an array of hashes.");
+        }
+        String uploadId = uploadIdOf(optionsList.getMap(i));
+        requestIds.add(uploadId);
+        requests.add(createUploadRequest(optionsList.getMap(i), uploadId));
+      }
+
+      WritableArray uploadIds = Arguments.createArray();
+      for (String uploadId : UploadService.enqueueAll(this.getReactApplicationContext(), requests)) {
+        uploadIds.pushString(uploadId);
+      }
+      promise.resolve(uploadIds);
+    } catch (Exception exc) {
+      for (String uploadId : requestIds) {
+        uploadDelegates.remove(uploadId);
+      }
+      Log.e(TAG, exc.getMessage(), exc);
+      promise.reject(exc);
+    }
+  }
+
+  /*
+   * Gets the ID of the upload from the customUploadId option, or generates a new one.
+   */
+  private static String uploadIdOf(ReadableMap options) {
+    return options.hasKey("customUploadId") && options.getType("method") == ReadableType.String
+            ? options.getString("customUploadId") : UUID.randomUUID().toString();
+  }
+
+  /*
+   * Removes the delegate of an upload which has completed, failed or has been cancelled.
+   */
+  void removeUploadDelegate(String uploadId) {
+    uploadDelegates.remove(uploadId);
+  }
+
+  /*
+   * Creates the upload request for the options given to startUpload. The request is not started,
+   * but its delegate is kept until the upload ends.
+   */
+  private HttpUploadRequest<?> createUploadRequest(ReadableMap options, String uploadId) throws Exception {
     for (String key : new String[]{"url", "path"}) {
       if (!options.hasKey(key)) {
-        promise.reject(new IllegalArgumentException("Missing '" + key + "' field."));
-        return;
+        throw new IllegalArgumentException("Missing '" + key + "' field.");
       }
       if (options.getType(key) != ReadableType.String) {
-        promise.reject(new IllegalArgumentException(key + " must be a string."));
-        return;
+        throw new IllegalArgumentException(key + " must be a string.");
       }
     }
 
     if (options.hasKey("headers") && options.getType("headers") != ReadableType.Map) {
-      promise.reject(new IllegalArgumentException("headers must be a hash."));
-      return;
+      throw new IllegalArgumentException("headers must be a hash.");
     }
 
     if (options.hasKey("notification") && options.getType("notification") != ReadableType.Map) {
-      promise.reject(new IllegalArgumentException("notification must be a hash."));
-      return;
+      throw new IllegalArgumentException("notification must be a hash.");
+    }
+
+    if (options.hasKey("priority") && priorityOf(options) == null) {
+      throw new IllegalArgumentException("priority should be string: low, normal or high.");
+    }
+
+    if (options.hasKey("unmeteredNetworkOnly") && options.getType("unmeteredNetworkOnly") != ReadableType.Boolean) {
+      throw new IllegalArgumentException("unmeteredNetworkOnly must be a boolean.");
+    }
+
+    if (options.hasKey("chunkSize") && (options.getType("chunkSize") != ReadableType.Number || options.getDouble("chunkSize") < 0)) {
+      throw new IllegalArgumentException("chunkSize must be a positive number.");
     }
 
     String requestType = "raw";
@@ -709,13 +794,11 @@ public class UploaderModule extends ReactContextBaseJavaModule {
     if (options.hasKey("type")) {
       requestType = options.getString("type");
       if (requestType == null) {
-        promise.reject(new IllegalArgumentException("type must be string."));
-        return;
+        throw new IllegalArgumentException("type must be string.");
       }
 
-      if (!requestType.equals("raw") && !requestType.equals("multipart")) {
-        promise.reject(new IllegalArgumentException("type should be string: raw or multipart."));
-        return;
+      if (!requestType.equals("raw") && !requestType.equals("multipart") && !requestType.equals("resumable")) {
+        throw new IllegalArgumentException("type should be string: raw, multipart or resumable.");
       }
     }
 
@@ -730,173 +813,126 @@ public class UploaderModule extends ReactContextBaseJavaModule {
     String filePath = options.getString("path");
     String method = options.hasKey("method") && options.getType("method") == ReadableType.String ? options.getString("method") : "POST";
 
-    final String customUploadId = options.hasKey("customUploadId") && options.getType("method") == ReadableType.String ? options.getString("customUploadId") : null;
-
-    try {
-      statusDelegate = new UploadStatusDelegate() {
-        @Override
-        public void onProgress(Context context, UploadInfo uploadInfo) {
-          WritableMap params = Arguments.createMap();
-          params.putString("id", customUploadId != null ? customUploadId : uploadInfo.getUploadId());
-          params.putInt("progress", uploadInfo.getProgressPercent()); //0-100
-          sendEvent("progress", params);
-        }
+    UploadEventsDelegate statusDelegate = new UploadEventsDelegate(this, uploadId);
 
-        @Override
-        public void onError(Context context, UploadInfo uploadInfo, ServerResponse serverResponse, Exception exception) {
-          WritableMap params = Arguments.createMap();
-          params.putString("id", customUploadId != null ? customUploadId : uploadInfo.getUploadId());
-          if (serverResponse != null) {
-            params.putInt("responseCode", serverResponse.getHttpCode());
-            params.putString("responseBody", serverResponse.getBodyAsString());
-          }
+    HttpUploadRequest<?> request;
 
-          // Make sure we do not try to call getMessage() on a null object
-          if (exception != null){
-            params.putString("error", exception.getMessage());
-          } else {
-            params.putString("error", "Unknown exception");
-          }
+    if (requestType.equals("raw")) {
+      request = new BinaryUploadRequest(this.getReactApplicationContext(), uploadId, url)
+              .setFileToUpload(filePath);
+    } else if (requestType.equals("resumable")) {
+      request = new ResumableUploadRequest(this.getReactApplicationContext(), uploadId, url)
+              .setFileToUpload(filePath)
+              .setChunkSize(options.hasKey("chunkSize") ? (long) options.getDouble("chunkSize") : 0);
+    } else {
+      if (!options.hasKey("field")) {
+        throw new IllegalArgumentException("field is required field for multipart type.");
+      }
 
-          sendEvent("error", params);
-        }
+      if (options.getType("field") != ReadableType.String) {
+        throw new IllegalArgumentException("field must be string.");
+      }
 
-        @Override
-        public void onCompleted(Context context, UploadInfo uploadInfo, ServerResponse serverResponse) {
-          WritableMap params = Arguments.createMap();
-          params.putString("id", customUploadId != null ? customUploadId : uploadInfo.getUploadId());
-          params.putInt("responseCode", serverResponse.getHttpCode());
-          params.putString("responseBody", serverResponse.getBodyAsString());
-          sendEvent("completed", params);
-        }
+      request = new MultipartUploadRequest(this.getReactApplicationContext(), uploadId, url)
+              .addFileToUpload(filePath, options.getString("field"));
+    }
 
-        @Override
-        public void onCancelled(Context context, UploadInfo uploadInfo) {
-          WritableMap params = Arguments.createMap();
-          params.putString("id", customUploadId != null ? customUploadId : uploadInfo.getUploadId());
-          sendEvent("cancelled", params);
-        }
-      };
 
-      HttpUploadRequest<?> request;
+    request.setMethod(method)
+      .setMaxRetries(2)
+      .setPriority(priorityOf(options))
+      .setUnmeteredNetworkOnly(isUnmeteredNetworkOnly(options))
+      .setProgressPolicy(progressPolicyOf(options))
+      .setDelegate(statusDelegate);
 
-      if (requestType.equals("raw")) {
-        request = new BinaryUploadRequest(this.getReactApplicationContext(), customUploadId, url)
-                .setFileToUpload(filePath);
-      } else {
-        if (!options.hasKey("field")) {
-          promise.reject(new IllegalArgumentException("field is required field for multipart type."));
-          return;
-        }
+    if (notification.getBoolean("enabled")) {
 
-        if (options.getType("field") != ReadableType.String) {
-          promise.reject(new IllegalArgumentException("field must be string."));
-          return;
-        }
+      UploadNotificationConfig notificationConfig = new UploadNotificationConfig();
 
-        request = new MultipartUploadRequest(this.getReactApplicationContext(), customUploadId, url)
-                .addFileToUpload(filePath, options.getString("field"));
+      if (notification.hasKey("notificationChannel")){
+        notificationConfig.setNotificationChannelId(notification.getString("notificationChannel"));
       }
 
+      if (notification.hasKey("autoClear") && notification.getBoolean("autoClear")){
+        notificationConfig.getCompleted().autoClear = true;
+      }
 
-      request.setMethod(method)
-        .setMaxRetries(2)
-        .setDelegate(statusDelegate);
-
-      if (notification.getBoolean("enabled")) {
-
-        UploadNotificationConfig notificationConfig = new UploadNotificationConfig();
-
-        if (notification.hasKey("notificationChannel")){
-          notificationConfig.setNotificationChannelId(notification.getString("notificationChannel"));
-        }
-
-        if (notification.hasKey("autoClear") && notification.getBoolean("autoClear")){
-          notificationConfig.getCompleted().autoClear = true;
-        }
+      if (notification.hasKey("enableRingTone") && notification.getBoolean("enableRingTone")){
+        notificationConfig.setRingToneEnabled(true);
+      }
 
-        if (notification.hasKey("enableRingTone") && notification.getBoolean("enableRingTone")){
-          notificationConfig.setRingToneEnabled(true);
-        }
+      if (notification.hasKey("onCompleteTitle")) {
+        notificationConfig.getCompleted().title = notification.getString("onCompleteTitle");
+      }
 
-        if (notification.hasKey("onCompleteTitle")) {
-          notificationConfig.getCompleted().title = notification.getString("onCompleteTitle");
-        }
+      if (notification.hasKey("onCompleteMessage")) {
+        notificationConfig.getCompleted().message = notification.getString("onCompleteMessage");
+      }
 
-        if (notification.hasKey("onCompleteMessage")) {
-          notificationConfig.getCompleted().message = notification.getString("onCompleteMessage");
-        }
+      if (notification.hasKey("onErrorTitle")) {
+        notificationConfig.getError().title = notification.getString("onErrorTitle");
+      }
 
-        if (notification.hasKey("onErrorTitle")) {
-          notificationConfig.getError().title = notification.getString("onErrorTitle");
-        }
+      if (notification.hasKey("onErrorMessage")) {
+        notificationConfig.getError().message = notification.getString("onErrorMessage");
+      }
 
-        if (notification.hasKey("onErrorMessage")) {
-          notificationConfig.getError().message = notification.getString("onErrorMessage");
-        }
+      if (notification.hasKey("onProgressTitle")) {
+        notificationConfig.getProgress().title = notification.getString("onProgressTitle");
+      }
 
-        if (notification.hasKey("onProgressTitle")) {
-          notificationConfig.getProgress().title = notification.getString("onProgressTitle");
-        }
+      if (notification.hasKey("onProgressMessage")) {
+        notificationConfig.getProgress().message = notification.getString("onProgressMessage");
+      }
 
-        if (notification.hasKey("onProgressMessage")) {
-          notificationConfig.getProgress().message = notification.getString("onProgressMessage");
-        }
+      if (notification.hasKey("onCancelledTitle")) {
+        notificationConfig.getCancelled().title = notification.getString("onCancelledTitle");
+      }
 
-        if (notification.hasKey("onCancelledTitle")) {
-          notificationConfig.getCancelled().title = notification.getString("onCancelledTitle");
-        }
+      if (notification.hasKey("onCancelledMessage")) {
+        notificationConfig.getCancelled().message = notification.getString("onCancelledMessage");
+      }
 
-        if (notification.hasKey("onCancelledMessage")) {
-          notificationConfig.getCancelled().message = notification.getString("onCancelledMessage");
-        }
+      request.setNotificationConfig(notificationConfig);
 
-        request.setNotificationConfig(notificationConfig);
+    }
 
+    if (options.hasKey("parameters")) {
+      if (requestType.equals("raw")) {
+        throw new IllegalArgumentException("Parameters supported only in multipart and resumable types");
       }
 
-      if (options.hasKey("parameters")) {
-        if (requestType.equals("raw")) {
-          promise.reject(new IllegalArgumentException("Parameters supported only in multipart type"));
-          return;
-        }
-
-        ReadableMap parameters = options.getMap("parameters");
-        ReadableMapKeySetIterator keys = parameters.keySetIterator();
-
-        while (keys.hasNextKey()) {
-          String key = keys.nextKey();
+      ReadableMap parameters = options.getMap("parameters");
+      ReadableMapKeySetIterator keys = parameters.keySetIterator();
 
-          if (parameters.getType(key) != ReadableType.String) {
-            promise.reject(new IllegalArgumentException("Parameters must be string key/values. Value was invalid for '" + key + "'"));
-            return;
-          }
+      while (keys.hasNextKey()) {
+        String key = keys.nextKey();
 
-          request.addParameter(key, parameters.getString(key));
+        if (parameters.getType(key) != ReadableType.String) {
+          throw new IllegalArgumentException("Parameters must be string key/values. Value was invalid for '" + key + "'");
         }
+
+        request.addParameter(key, parameters.getString(key));
       }
+    }
 
-      if (options.hasKey("headers")) {
-        ReadableMap headers = options.getMap("headers");
-        ReadableMapKeySetIterator keys = headers.keySetIterator();
-        while (keys.hasNextKey()) {
-          String key = keys.nextKey();
-          if (headers.getType(key) != ReadableType.String) {
-            promise.reject(new IllegalArgumentException("Headers must be string key/values.  Value was invalid for '" + key + "'"));
-            return;
-          }
-          request.addHeader(key, headers.getString(key));
+    if (options.hasKey("headers")) {
+      ReadableMap headers = options.getMap("headers");
+      ReadableMapKeySetIterator keys = headers.keySetIterator();
+      while (keys.hasNextKey()) {
+        String key = keys.nextKey();
+        if (headers.getType(key) != ReadableType.String) {
+          throw new IllegalArgumentException("Headers must be string key/values.  Value was invalid for '" + key + "'");
         }
+        request.addHeader(key, headers.getString(key));
       }
-
-      String uploadId = request.startUpload();
-      promise.resolve(uploadId);
-    } catch (Exception exc) {
-      Log.e(TAG, exc.getMessage(), exc);
-      promise.reject(exc);
     }
+
+    uploadDelegates.put(uploadId, statusDelegate);
+    return request;
   }
 
+
   /*
    * Cancels file upload
    * Accepts upload ID as a first argument, this upload will be cancelled
@@ -909,7 +945,12 @@ public class UploaderModule extends ReactContextBaseJavaModule {
       return;
     }
     try {
-      UploadService.stopUpload(cancelUploadId);
+      MultipartUploadSession session = multipartUploads.get(cancelUploadId);
+      if (session != null) {
+        session.cancel();
+      } else {
+        UploadService.stopUpload(cancelUploadId);
+      }
       promise.resolve(true);
     } catch (Exception exc) {
       Log.e(TAG, exc.getMessage(), exc);
@@ -917,4 +958,24 @@ public class UploaderModule extends ReactContextBaseJavaModule {
     }
   }
 
+  /*
+   * Sets the maximum total bandwidth used by the uploads, in bytes per second.
+   * 0 or less removes the limit.
+   */
+  @ReactMethod
+  public void setMaxUploadRate(double bytesPerSecond, final Promise promise) {
+    UploadService.setMaxUploadRate((long) bytesPerSecond);
+    promise.resolve(true);
+  }
+
+  /*
+   * Sets the time between two progressBatch events, in milliseconds.
+   * 0 or less sends every progress event on its own.
+   */
+  @ReactMethod
+  public void setProgressBatchInterval(double interval, final Promise promise) {
+    progressBatcher.setInterval((long) interval);
+    promise.resolve(true);
+  }
+
 }
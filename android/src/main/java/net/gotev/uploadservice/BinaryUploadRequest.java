@@ -68,6 +68,23 @@ public class BinaryUploadRequest extends HttpUploadRequest<BinaryUploadRequest>
         return this;
     }
 
+    /**
+     * Sets a range of bytes of a file as raw body of the upload request.
+     * The bytes are read directly from the original file, without making a copy of them.
+     *
+     * @param path path to the file that you want to upload
+     * @param offset offset in bytes of the first byte to upload
+     * @param length number of bytes to upload, or -1 to upload up to the end of the file
+     * @throws FileNotFoundException if the file to upload does not exist
+     * @return {@link BinaryUploadRequest}
+     */
+    public BinaryUploadRequest setFileToUpload(String path, long offset, long length)
+            throws FileNotFoundException {
+        params.files.clear();
+        params.files.add(new UploadFile(path, offset, length));
+        return this;
+    }
+
     @Override
     public BinaryUploadRequest addParameter(String paramName, String paramValue) {
         logDoesNotSupportParameters();
@@ -87,11 +104,11 @@ public class BinaryUploadRequest extends HttpUploadRequest<BinaryUploadRequest>
     }
 
     @Override
-    public String startUpload() {
+    protected void validate() throws IllegalArgumentException {
+        super.validate();
+
         if (params.files.isEmpty())
             throw new IllegalArgumentException("Set the file to be used in the request body first!");
-
-        return super.startUpload();
     }
 
     private void logDoesNotSupportParameters() {
@@ -20,7 +20,8 @@ public class BinaryUploadTask extends HttpUploadTask {
 
     @Override
     public void onBodyReady(BodyWriter bodyWriter) throws IOException {
-        bodyWriter.writeStream(params.files.get(0).getStream(service), this);
+        resetDigest();
+        bodyWriter.writeStream(digest(params.files.get(0).getStream(service)), this);
     }
 
     @Override
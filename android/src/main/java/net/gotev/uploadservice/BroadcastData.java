@@ -14,6 +14,7 @@ class BroadcastData implements Parcelable {
 
     public enum Status {
         IN_PROGRESS,
+        WAITING_FOR_NETWORK,
         ERROR,
         COMPLETED,
         CANCELLED
@@ -0,0 +1,114 @@
+package net.gotev.uploadservice;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adapts the number of uploads running at the same time to the available bandwidth.
+ * The aggregate throughput of all the uploads is sampled every {@link #SAMPLE_INTERVAL}.
+ * While there are uploads waiting for a free slot, the limit is raised by one as long as doing
+ * so increases the throughput, lowered by one when the last increase didn't pay off, and halved
+ * when the throughput collapses (e.g. when moving from Wi-Fi to a mobile network).
+ * The limit always stays between {@link UploadService#MIN_CONCURRENT_UPLOADS} and
+ * {@link UploadService#MAX_CONCURRENT_UPLOADS}.
+ */
+final class ConcurrencyController {
+
+    private static final String LOG_TAG = ConcurrencyController.class.getSimpleName();
+
+    /**
+     * Time between two throughput samples, in milliseconds. Long enough for new TCP streams
+     * to get past their slow start.
+     */
+    private static final long SAMPLE_INTERVAL = 3000;
+
+    /**
+     * Minimum relative throughput gain for which another concurrent upload is worth it.
+     */
+    private static final double GAIN_THRESHOLD = 0.05;
+
+    /**
+     * Relative throughput loss considered as congestion.
+     */
+    private static final double LOSS_THRESHOLD = 0.3;
+
+    private final UploadTaskQueue queue;
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private Timer timer;
+
+    private int limit;
+    private double lastThroughput = -1; // bytes per second
+    private boolean lastChangeWasIncrease = false;
+
+    ConcurrencyController(UploadTaskQueue queue) {
+        this.queue = queue;
+    }
+
+    void start() {
+        limit = clamp(UploadService.INITIAL_CONCURRENT_UPLOADS);
+        queue.setConcurrencyLimit(limit);
+
+        timer = new Timer(LOG_TAG);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, SAMPLE_INTERVAL, SAMPLE_INTERVAL);
+    }
+
+    void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * Called by the upload tasks for each chunk of data written to the server.
+     * @param bytes number of bytes written
+     */
+    void onBytesWritten(int bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    private void sample() {
+        double throughput = (double) bytesWritten.getAndSet(0) * 1000 / SAMPLE_INTERVAL;
+
+        // with free slots, the throughput says nothing about the effect of the limit, and
+        // nothing is written while the uploads wait for network or retry
+        if (throughput == 0 || !queue.isSaturated()) {
+            lastThroughput = -1;
+            lastChangeWasIncrease = false;
+            return;
+        }
+
+        int newLimit = limit;
+
+        if (lastThroughput < 0 || throughput > lastThroughput * (1 + GAIN_THRESHOLD)) {
+            newLimit = limit + 1;
+        } else if (throughput < lastThroughput * (1 - LOSS_THRESHOLD)) {
+            newLimit = limit / 2;
+        } else if (lastChangeWasIncrease) {
+            newLimit = limit - 1;
+        }
+
+        newLimit = clamp(newLimit);
+        lastChangeWasIncrease = newLimit > limit;
+        lastThroughput = throughput;
+
+        if (newLimit != limit) {
+            Logger.debug(LOG_TAG, "Concurrent uploads " + limit + " -> " + newLimit
+                    + " at " + (long) throughput + " bytes/s");
+            limit = newLimit;
+            queue.setConcurrencyLimit(limit);
+        }
+    }
+
+    private static int clamp(int limit) {
+        int max = Math.max(1, UploadService.MAX_CONCURRENT_UPLOADS);
+        int min = Math.min(max, Math.max(1, UploadService.MIN_CONCURRENT_UPLOADS));
+        return Math.max(min, Math.min(max, limit));
+    }
+}
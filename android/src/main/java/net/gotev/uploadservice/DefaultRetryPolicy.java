@@ -0,0 +1,62 @@
+package net.gotev.uploadservice;
+
+import java.io.FileNotFoundException;
+import java.net.MalformedURLException;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Default {@link RetryPolicy}.
+ * <ul>
+ *     <li>2xx and 3xx responses succeed</li>
+ *     <li>408, 425, 429, 500, 502, 503 and 504 responses are retried, as they're transient
+ *     server or network conditions</li>
+ *     <li>all the other responses fail right away, as sending the same request again would
+ *     give the same result (e.g. 400, 401, 403, 404, 413)</li>
+ *     <li>exceptions are retried, except the ones which can't go away by themselves: missing
+ *     local files, invalid URLs or requests, untrusted certificates and missing permissions</li>
+ * </ul>
+ */
+public class DefaultRetryPolicy implements RetryPolicy {
+
+    @Override
+    public Decision onResponse(ServerResponse response) {
+        int code = response.getHttpCode();
+
+        if (code >= 200 && code < 400)
+            return Decision.SUCCEED;
+
+        switch (code) {
+            case 408: // Request Timeout
+            case 425: // Too Early
+            case 429: // Too Many Requests
+            case 500: // Internal Server Error
+            case 502: // Bad Gateway
+            case 503: // Service Unavailable
+            case 504: // Gateway Timeout
+                return Decision.RETRY;
+
+            default:
+                return Decision.FAIL;
+        }
+    }
+
+    @Override
+    public Decision onException(Exception exception) {
+        if (exception instanceof RetryAfterException)
+            return Decision.RETRY;
+
+        if (exception instanceof FileNotFoundException
+                || exception instanceof MalformedURLException
+                || exception instanceof SSLPeerUnverifiedException
+                || exception instanceof SecurityException
+                || exception instanceof IllegalArgumentException
+                || exception instanceof UnsupportedOperationException
+                || exception instanceof GeneralSecurityException
+                || exception.getCause() instanceof GeneralSecurityException)
+            return Decision.FAIL;
+
+        return Decision.RETRY;
+    }
+}
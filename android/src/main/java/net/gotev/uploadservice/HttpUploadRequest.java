@@ -154,4 +154,17 @@ public abstract class HttpUploadRequest<B extends HttpUploadRequest<B>>
         httpParams.usesFixedLengthStreamingMode = fixedLength;
         return self();
     }
+
+    /**
+     * Computes a digest of the uploaded files content while it's being streamed to the server,
+     * so the files don't have to be read twice to be hashed. The hex encoded digest is available
+     * in {@link UploadInfo#getDigest()} when the upload completes.
+     * @param algorithm name of the {@link java.security.MessageDigest} algorithm to use
+     *                  (e.g. MD5 or SHA-256), or null to not compute the digest (default)
+     * @return self instance
+     */
+    public B setDigestAlgorithm(String algorithm) {
+        httpParams.digestAlgorithm = algorithm;
+        return self();
+    }
 }
@@ -7,7 +7,10 @@ import net.gotev.uploadservice.http.BodyWriter;
 import net.gotev.uploadservice.http.HttpConnection;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 
 /**VERSION_NAME
  * Generic HTTP Upload Task.<br>
@@ -32,6 +35,11 @@ public abstract class HttpUploadTask extends UploadTask
      */
     private HttpConnection connection;
 
+    /**
+     * Digest of the uploaded content, updated while the content is streamed into the body.
+     */
+    private MessageDigest messageDigest;
+
     @Override
     protected void init(UploadService service, Intent intent) throws IOException {
         super.init(service, intent);
@@ -57,6 +65,8 @@ public abstract class HttpUploadTask extends UploadTask
             getSuccessfullyUploadedFiles().clear();
             uploadedBytes = 0;
             totalBytes = getBodyLength();
+            messageDigest = httpParams.isDigestEnabled()
+                    ? MessageDigest.getInstance(httpParams.digestAlgorithm) : null;
 
             if (httpParams.isCustomUserAgentDefined()) {
                 httpParams.addHeader("User-Agent", httpParams.customUserAgent);
@@ -80,7 +90,12 @@ public abstract class HttpUploadTask extends UploadTask
             // broadcasted and then the cancellation. That behaviour was not desirable as the
             // library user couldn't execute code on user cancellation.
             if (shouldContinue) {
-                broadcastCompleted(response);
+                RetryPolicy.Decision decision = UploadService.getRetryPolicy().onResponse(response);
+
+                if (decision == RetryPolicy.Decision.RETRY && hasRetriesLeft())
+                    throw new RetryAfterException(response);
+
+                broadcastCompleted(response, decision == RetryPolicy.Decision.SUCCEED);
             }
 
         } finally {
@@ -96,6 +111,42 @@ public abstract class HttpUploadTask extends UploadTask
      */
     protected abstract long getBodyLength() throws UnsupportedEncodingException;
 
+    /**
+     * Wraps a file stream so that its content is added to the upload digest while it's being
+     * written into the body. Subclasses have to write the content of the uploaded files through
+     * this method for {@link HttpUploadRequest#setDigestAlgorithm(String)} to work.
+     * @param stream file stream to write into the body
+     * @return stream to pass to {@link BodyWriter#writeStream(InputStream, BodyWriter.OnStreamWriteListener)}
+     */
+    protected final InputStream digest(InputStream stream) {
+        if (messageDigest == null)
+            return stream;
+
+        return new DigestInputStream(stream, messageDigest);
+    }
+
+    /**
+     * Discards the content digested so far. Call it every time the body is written from scratch.
+     */
+    protected final void resetDigest() {
+        if (messageDigest != null)
+            messageDigest.reset();
+    }
+
+    @Override
+    protected String getDigest() {
+        if (messageDigest == null)
+            return null;
+
+        byte[] digest = messageDigest.digest();
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte digestByte : digest) {
+            hex.append(Character.forDigit((digestByte >> 4) & 0xf, 16))
+               .append(Character.forDigit(digestByte & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
     // BodyWriter.OnStreamWriteListener methods implementation
 
     @Override
@@ -106,6 +157,7 @@ public abstract class HttpUploadTask extends UploadTask
     @Override
     public void onBytesWritten(int bytesWritten) {
         uploadedBytes += bytesWritten;
+        service.onBytesWritten(bytesWritten);
         broadcastProgress(uploadedBytes, totalBytes);
     }
 
@@ -17,6 +17,7 @@ public final class HttpUploadTaskParameters implements Parcelable {
     public String customUserAgent;
     public String method = "POST";
     public boolean usesFixedLengthStreamingMode = true;
+    public String digestAlgorithm;
     private ArrayList<NameValue> requestHeaders = new ArrayList<>(10);
     private ArrayList<NameValue> requestParameters = new ArrayList<>(10);
 
@@ -44,6 +45,7 @@ public final class HttpUploadTaskParameters implements Parcelable {
         parcel.writeString(method);
         parcel.writeString(customUserAgent);
         parcel.writeByte((byte) (usesFixedLengthStreamingMode ? 1 : 0));
+        parcel.writeString(digestAlgorithm);
         parcel.writeList(requestHeaders);
         parcel.writeList(requestParameters);
     }
@@ -52,6 +54,7 @@ public final class HttpUploadTaskParameters implements Parcelable {
         method = in.readString();
         customUserAgent = in.readString();
         usesFixedLengthStreamingMode = in.readByte() == 1;
+        digestAlgorithm = in.readString();
         in.readList(requestHeaders, NameValue.class.getClassLoader());
         in.readList(requestParameters, NameValue.class.getClassLoader());
     }
@@ -61,6 +64,10 @@ public final class HttpUploadTaskParameters implements Parcelable {
         return 0;
     }
 
+    public boolean isDigestEnabled() {
+        return digestAlgorithm != null && !"".equals(digestAlgorithm);
+    }
+
     public boolean isCustomUserAgentDefined() {
         return customUserAgent != null && !"".equals(customUserAgent);
     }
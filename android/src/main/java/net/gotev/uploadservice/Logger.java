@@ -63,6 +63,15 @@ public class Logger {
                 && SingletonHolder.instance.mLogLevel.compareTo(level) <= 0;
     }
 
+    /**
+     * Checks if debug messages are logged. Use it to avoid building messages on hot paths
+     * when they would be discarded.
+     * @return true if debug messages are logged
+     */
+    public static boolean isDebugEnabled() {
+        return delegateIsDefinedAndLogLevelIsAtLeast(LogLevel.DEBUG);
+    }
+
     public static void error(String tag, String message) {
         if (delegateIsDefinedAndLogLevelIsAtLeast(LogLevel.ERROR)) {
             SingletonHolder.instance.mDelegate.get().error(tag, message);
@@ -85,9 +85,31 @@ public class MultipartUploadRequest extends HttpUploadRequest<MultipartUploadReq
                                                   String parameterName,
                                                   String fileName, String contentType)
             throws FileNotFoundException, IllegalArgumentException {
+        return addFileToUpload(new UploadFile(filePath), parameterName, fileName, contentType);
+    }
+
+    /**
+     * Adds a range of bytes of a file to this upload request. The bytes are read directly from
+     * the original file, without making a copy of them. The original file name will be used
+     * and the content type will be automatically detected.
+     *
+     * @param filePath path to the file that you want to upload
+     * @param offset offset in bytes of the first byte to upload
+     * @param length number of bytes to upload, or -1 to upload up to the end of the file
+     * @param parameterName Name of the form parameter that will contain file's data
+     * @throws FileNotFoundException if the file does not exist at the specified path
+     * @throws IllegalArgumentException if one or more parameters are not valid
+     * @return {@link MultipartUploadRequest}
+     */
+    public MultipartUploadRequest addFileToUpload(String filePath, long offset, long length,
+                                                  String parameterName)
+            throws FileNotFoundException, IllegalArgumentException {
+        return addFileToUpload(new UploadFile(filePath, offset, length), parameterName, null, null);
+    }
 
-        UploadFile file = new UploadFile(filePath);
-        filePath = file.getPath();
+    private MultipartUploadRequest addFileToUpload(UploadFile file, String parameterName,
+                                                   String fileName, String contentType) {
+        String filePath = file.getPath();
 
         if (parameterName == null || "".equals(parameterName)) {
             throw new IllegalArgumentException("Please specify parameterName value for file: "
@@ -62,6 +62,7 @@ public class MultipartUploadTask extends HttpUploadTask {
         //reset uploaded bytes when the body is ready to be written
         //because sometimes this gets invoked when network changes
         uploadedBytes = 0;
+        resetDigest();
         writeRequestParameters(bodyWriter);
         writeFiles(bodyWriter);
         bodyWriter.write(trailerBytes);
@@ -140,7 +141,7 @@ public class MultipartUploadTask extends HttpUploadTask {
             uploadedBytes += boundaryBytes.length + headerBytes.length;
             broadcastProgress(uploadedBytes, totalBytes);
 
-            bodyWriter.writeStream(file.getStream(service), this);
+            bodyWriter.writeStream(digest(file.getStream(service)), this);
 
             byte[] newLineBytes = NEW_LINE.getBytes(charset);
             bodyWriter.write(newLineBytes);
@@ -0,0 +1,139 @@
+package net.gotev.uploadservice;
+
+import android.annotation.SuppressLint;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+
+/**
+ * Keeps track of the network connectivity, so that the upload tasks can wait for a suitable
+ * network instead of failing their attempts and burning their retries while the device is offline.
+ * Uses the connectivity manager network callbacks on Lollipop and newer, and the connectivity
+ * change broadcast on the older versions.
+ */
+final class NetworkMonitor {
+
+    interface OnNetworkChangedListener {
+        /**
+         * Called when a network becomes available, is lost or changes its capabilities.
+         * It may be called on any thread.
+         */
+        void onNetworkChanged();
+    }
+
+    private static final String LOG_TAG = NetworkMonitor.class.getSimpleName();
+
+    private final Context context;
+    private final ConnectivityManager connectivityManager;
+    private final OnNetworkChangedListener listener;
+
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private BroadcastReceiver connectivityReceiver;
+
+    NetworkMonitor(Context context, OnNetworkChangedListener listener) {
+        this.context = context;
+        this.listener = listener;
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @SuppressLint("NewApi")
+    void start() {
+        if (connectivityManager == null)
+            return;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            networkCallback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    onNetworkChanged();
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    onNetworkChanged();
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                    onNetworkChanged();
+                }
+            };
+
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build();
+
+            try {
+                connectivityManager.registerNetworkCallback(request, networkCallback);
+            } catch (Exception exc) {
+                // thrown if ACCESS_NETWORK_STATE is missing or the app has too many callbacks
+                Logger.error(LOG_TAG, "Unable to register the network callback", exc);
+                networkCallback = null;
+            }
+
+        } else {
+            connectivityReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    onNetworkChanged();
+                }
+            };
+
+            context.registerReceiver(connectivityReceiver,
+                                     new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    @SuppressLint("NewApi")
+    void stop() {
+        if (networkCallback != null) {
+            try {
+                connectivityManager.unregisterNetworkCallback(networkCallback);
+            } catch (Exception exc) {
+                Logger.error(LOG_TAG, "Unable to unregister the network callback", exc);
+            }
+            networkCallback = null;
+        }
+
+        if (connectivityReceiver != null) {
+            context.unregisterReceiver(connectivityReceiver);
+            connectivityReceiver = null;
+        }
+    }
+
+    private void onNetworkChanged() {
+        listener.onNetworkChanged();
+    }
+
+    /**
+     * Checks if there's a network suitable to upload.
+     * @param unmeteredOnly true if only unmetered networks are suitable
+     * @return true if the device is connected to a suitable network. If the connectivity can't be
+     * checked, the network is assumed to be available, so that the uploads are attempted anyway.
+     */
+    boolean isNetworkAvailable(boolean unmeteredOnly) {
+        if (connectivityManager == null)
+            return true;
+
+        try {
+            NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
+
+            if (activeNetwork == null || !activeNetwork.isConnected())
+                return false;
+
+            return !unmeteredOnly || !connectivityManager.isActiveNetworkMetered();
+
+        } catch (Exception exc) {
+            // thrown if ACCESS_NETWORK_STATE is missing
+            Logger.error(LOG_TAG, "Unable to check the network state", exc);
+            return true;
+        }
+    }
+}
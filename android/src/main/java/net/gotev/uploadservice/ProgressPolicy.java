@@ -0,0 +1,146 @@
+package net.gotev.uploadservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Decides which progress updates of an upload are reported to the delegates, the broadcast
+ * receivers and the notification. An update is reported when the minimum interval has elapsed
+ * since the last reported one, and the upload has advanced at least by the minimum number of
+ * bytes and by the minimum percentage. The last update, with all the bytes uploaded, is always
+ * reported, unless only the terminal events are.<br>
+ * By default updates are reported every {@link UploadService#PROGRESS_REPORT_INTERVAL}
+ * milliseconds, regardless of how much the upload has advanced.
+ */
+public final class ProgressPolicy implements Parcelable {
+
+    private long minInterval = UploadService.PROGRESS_REPORT_INTERVAL;
+    private long minBytes = 0;
+    private int minPercent = 0;
+    private boolean terminalEventsOnly = false;
+
+    public ProgressPolicy() {
+
+    }
+
+    // This is used to regenerate the object.
+    // All Parcelables must have a CREATOR that implements these two methods
+    public static final Parcelable.Creator<ProgressPolicy> CREATOR =
+            new Parcelable.Creator<ProgressPolicy>() {
+                @Override
+                public ProgressPolicy createFromParcel(final Parcel in) {
+                    return new ProgressPolicy(in);
+                }
+
+                @Override
+                public ProgressPolicy[] newArray(final int size) {
+                    return new ProgressPolicy[size];
+                }
+            };
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeLong(minInterval);
+        parcel.writeLong(minBytes);
+        parcel.writeInt(minPercent);
+        parcel.writeByte((byte) (terminalEventsOnly ? 1 : 0));
+    }
+
+    private ProgressPolicy(Parcel in) {
+        minInterval = in.readLong();
+        minBytes = in.readLong();
+        minPercent = in.readInt();
+        terminalEventsOnly = in.readByte() == 1;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public long getMinInterval() {
+        return minInterval;
+    }
+
+    /**
+     * Sets the minimum time between two reported updates.
+     * @param minInterval time in milliseconds
+     * @return {@link ProgressPolicy}
+     */
+    public ProgressPolicy setMinInterval(long minInterval) {
+        this.minInterval = Math.max(0, minInterval);
+        return this;
+    }
+
+    public long getMinBytes() {
+        return minBytes;
+    }
+
+    /**
+     * Sets the minimum number of bytes uploaded between two reported updates.
+     * @param minBytes number of bytes, 0 to not check it (default)
+     * @return {@link ProgressPolicy}
+     */
+    public ProgressPolicy setMinBytes(long minBytes) {
+        this.minBytes = Math.max(0, minBytes);
+        return this;
+    }
+
+    public int getMinPercent() {
+        return minPercent;
+    }
+
+    /**
+     * Sets the minimum percentage of the upload made between two reported updates.
+     * @param minPercent percentage between 0 and 100, 0 to not check it (default)
+     * @return {@link ProgressPolicy}
+     */
+    public ProgressPolicy setMinPercent(int minPercent) {
+        this.minPercent = Math.max(0, Math.min(100, minPercent));
+        return this;
+    }
+
+    public boolean isTerminalEventsOnly() {
+        return terminalEventsOnly;
+    }
+
+    /**
+     * Sets if no progress update has to be reported, but only the completion, error and
+     * cancellation of the upload.
+     * @param terminalEventsOnly true to report only the terminal events
+     * @return {@link ProgressPolicy}
+     */
+    public ProgressPolicy setTerminalEventsOnly(boolean terminalEventsOnly) {
+        this.terminalEventsOnly = terminalEventsOnly;
+        return this;
+    }
+
+    /**
+     * Checks if a progress update has to be reported.
+     * @param lastTime time of the last reported update, in milliseconds
+     * @param lastUploadedBytes bytes uploaded at the last reported update
+     * @param currentTime time of this update, in milliseconds
+     * @param uploadedBytes bytes uploaded so far
+     * @param totalBytes total bytes to upload
+     * @return true to report the update
+     */
+    boolean shouldReport(long lastTime, long lastUploadedBytes, long currentTime,
+                         long uploadedBytes, long totalBytes) {
+        if (terminalEventsOnly)
+            return false;
+
+        // a new attempt starting over is reported as well
+        if (uploadedBytes >= totalBytes || uploadedBytes < lastUploadedBytes)
+            return true;
+
+        if (currentTime < lastTime + minInterval)
+            return false;
+
+        long delta = uploadedBytes - lastUploadedBytes;
+
+        if (delta < minBytes)
+            return false;
+
+        return minPercent == 0 || totalBytes <= 0 || delta * 100 >= minPercent * totalBytes;
+    }
+}
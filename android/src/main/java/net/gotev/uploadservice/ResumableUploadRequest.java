@@ -0,0 +1,123 @@
+package net.gotev.uploadservice;
+
+import android.content.Context;
+import android.content.Intent;
+
+import java.io.FileNotFoundException;
+import java.net.MalformedURLException;
+import java.util.List;
+
+/**
+ * Resumable file upload request, using the tus 1.0 protocol (https://tus.io).
+ * The server URL is the creation endpoint of the tus server. When an attempt fails, or the
+ * process gets killed, the upload continues from the last byte received by the server, instead
+ * of sending the whole file again.<br>
+ * Parameters are sent as tus Upload-Metadata. The HTTP method and the streaming mode are defined
+ * by the protocol, so the values set with {@link #setMethod(String)} and
+ * {@link #setUsesFixedLengthStreamingMode(boolean)} are not used, and digests are not supported,
+ * as a resumed upload doesn't read the whole file.
+ */
+public class ResumableUploadRequest extends HttpUploadRequest<ResumableUploadRequest> {
+
+    private long chunkSize = 0;
+
+    /**
+     * Creates a resumable file upload request.
+     *
+     * @param context application context
+     * @param uploadId unique ID to assign to this upload request.<br>
+     *                 It can be whatever string you want, as long as it's unique.
+     *                 If you set it to null or an empty string, an UUID will be automatically
+     *                 generated.<br> It's advised to keep a reference to it in your code,
+     *                 so when you receive status updates in {@link UploadServiceBroadcastReceiver},
+     *                 you know to which upload they refer to.
+     * @param serverUrl URL of the tus creation endpoint.
+     *                  E.g.: https://www.yourcompany.com/files/
+     * @throws IllegalArgumentException if one or more arguments are not valid
+     * @throws MalformedURLException if the server URL is not valid
+     */
+    public ResumableUploadRequest(final Context context, final String uploadId, final String serverUrl)
+        throws IllegalArgumentException, MalformedURLException {
+        super(context, uploadId, serverUrl);
+    }
+
+    /**
+     * Creates a new resumable upload request and automatically generates an upload id, that will
+     * be returned when you call {@link HttpUploadRequest#startUpload()}.
+     *
+     * @param context application context
+     * @param serverUrl URL of the tus creation endpoint.
+     *                  E.g.: https://www.yourcompany.com/files/
+     * @throws IllegalArgumentException if one or more arguments are not valid
+     * @throws MalformedURLException if the server URL is not valid
+     */
+    public ResumableUploadRequest(final Context context, final String serverUrl)
+        throws MalformedURLException, IllegalArgumentException {
+        this(context, null, serverUrl);
+    }
+
+    @Override
+    protected void initializeIntent(Intent intent) {
+        super.initializeIntent(intent);
+        intent.putExtra(ResumableUploadTask.PARAM_CHUNK_SIZE, chunkSize);
+    }
+
+    @Override
+    protected Class<? extends UploadTask> getTaskClass() {
+        return ResumableUploadTask.class;
+    }
+
+    /**
+     * Sets the file to upload.
+     *
+     * @param path path to the file that you want to upload
+     * @throws FileNotFoundException if the file to upload does not exist
+     * @return {@link ResumableUploadRequest}
+     */
+    public ResumableUploadRequest setFileToUpload(String path) throws FileNotFoundException {
+        params.files.clear();
+        params.files.add(new UploadFile(path));
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes sent with a single PATCH request. Smaller chunks are
+     * needed by servers or proxies which limit the size of the requests. By default the whole
+     * file is sent with a single request, which is resumed from where it stopped if it fails.
+     *
+     * @param chunkSize maximum size in bytes, or 0 to send the whole file with a single request
+     * @return {@link ResumableUploadRequest}
+     */
+    public ResumableUploadRequest setChunkSize(long chunkSize) {
+        if (chunkSize < 0)
+            throw new IllegalArgumentException("chunkSize must not be negative");
+
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    @Override
+    public ResumableUploadRequest addArrayParameter(String paramName, String... array) {
+        logDoesNotSupportArrayParameters();
+        return this;
+    }
+
+    @Override
+    public ResumableUploadRequest addArrayParameter(String paramName, List<String> list) {
+        logDoesNotSupportArrayParameters();
+        return this;
+    }
+
+    @Override
+    protected void validate() throws IllegalArgumentException {
+        super.validate();
+
+        if (params.files.isEmpty())
+            throw new IllegalArgumentException("Set the file to upload first!");
+    }
+
+    private void logDoesNotSupportArrayParameters() {
+        Logger.error(getClass().getSimpleName(),
+                     "Upload metadata does not support array parameters");
+    }
+}
@@ -0,0 +1,297 @@
+package net.gotev.uploadservice;
+
+import android.content.Intent;
+import android.util.Base64;
+
+import net.gotev.uploadservice.http.BodyWriter;
+import net.gotev.uploadservice.http.HttpConnection;
+import net.gotev.uploadservice.http.impl.HurlStack;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implements a resumable upload task, using the tus 1.0 protocol (https://tus.io).
+ * The task creates an upload on the server with a POST request, and sends the content of the
+ * file with PATCH requests. When an attempt fails, the next one asks the server how many bytes
+ * it has received with a HEAD request, and sends only the missing ones. The URL of the upload is
+ * saved with the task, so the upload is resumed also after the process gets killed.
+ */
+public class ResumableUploadTask extends HttpUploadTask {
+
+    private static final String LOG_TAG = ResumableUploadTask.class.getSimpleName();
+
+    protected static final String PARAM_CHUNK_SIZE = "resumableChunkSize";
+    protected static final String PARAM_UPLOAD_URL = "resumableUploadUrl";
+
+    private static final String TUS_VERSION = "1.0.0";
+    private static final String CONTENT_TYPE_OFFSET = "application/offset+octet-stream";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private long chunkSize;
+    private String uploadUrl;
+
+    // range of the file sent in the body of the current request
+    private long bodyOffset;
+    private long bodyLength;
+
+    @Override
+    protected void init(UploadService service, Intent intent) throws IOException {
+        super.init(service, intent);
+        this.chunkSize = intent.getLongExtra(PARAM_CHUNK_SIZE, 0);
+        this.uploadUrl = intent.getStringExtra(PARAM_UPLOAD_URL);
+    }
+
+    @Override
+    protected void upload() throws Exception {
+
+        Logger.debug(LOG_TAG, "Starting resumable upload task with ID " + params.id);
+
+        getSuccessfullyUploadedFiles().clear();
+        totalBytes = getBodyLength();
+
+        ServerResponse response = null;
+        long offset = -1;
+
+        if (uploadUrl != null) {
+            response = request("HEAD", uploadUrl, new ArrayList<NameValue>(), 0);
+
+            if (isUploadGone(response)) {
+                Logger.info(LOG_TAG, "Upload with ID " + params.id + " is no longer on the server"
+                        + " (HTTP " + response.getHttpCode() + "), uploading it from scratch");
+                setUploadUrl(null);
+
+            } else if (response.getHttpCode() / 100 != 2) {
+                onFailedResponse(response);
+                return;
+
+            } else {
+                offset = getUploadOffset(response);
+                if (offset < 0 || offset > totalBytes)
+                    throw new IOException("Invalid Upload-Offset in the response to HEAD " + uploadUrl);
+            }
+        }
+
+        if (!shouldContinue)
+            return;
+
+        if (uploadUrl == null) {
+            response = createUpload();
+            if (response == null)
+                return;
+
+            offset = 0;
+        }
+
+        Logger.debug(LOG_TAG, "Resuming upload with ID " + params.id + " from byte " + offset);
+        uploadedBytes = offset;
+        broadcastProgress(uploadedBytes, totalBytes);
+
+        while (offset < totalBytes && shouldContinue) {
+            response = sendChunk(offset);
+
+            if (!shouldContinue)
+                return;
+
+            if (isUploadGone(response)) {
+                // expired on the server, the next attempt creates it again
+                setUploadUrl(null);
+                throw new IOException("Upload expired on the server (HTTP " + response.getHttpCode() + ")");
+            }
+
+            if (response.getHttpCode() == 409) {
+                // the offset doesn't match the one on the server, the next attempt asks it again
+                throw new IOException("Upload-Offset " + offset + " rejected by the server");
+            }
+
+            if (response.getHttpCode() / 100 != 2) {
+                onFailedResponse(response);
+                return;
+            }
+
+            long newOffset = getUploadOffset(response);
+            if (newOffset <= offset || newOffset > totalBytes)
+                throw new IOException("Invalid Upload-Offset in the response to PATCH " + uploadUrl);
+
+            offset = newOffset;
+            uploadedBytes = offset;
+        }
+
+        if (shouldContinue) {
+            broadcastCompleted(response, true);
+        }
+    }
+
+    /**
+     * Creates the upload on the server.
+     * @return server response, or null if the creation failed and the task has been completed
+     * @throws IOException if an error occurs, or if the creation has to be retried
+     */
+    private ServerResponse createUpload() throws IOException {
+        List<NameValue> headers = new ArrayList<>(2);
+        headers.add(NameValue.header("Upload-Length", Long.toString(totalBytes)));
+
+        String metadata = getUploadMetadata();
+        if (metadata != null) {
+            headers.add(NameValue.header("Upload-Metadata", metadata));
+        }
+
+        ServerResponse response = request("POST", params.serverUrl, headers, 0);
+
+        if (response.getHttpCode() / 100 != 2) {
+            onFailedResponse(response);
+            return null;
+        }
+
+        String location = getHeader(response, "Location");
+        if (location == null)
+            throw new IOException("Missing Location in the response to POST " + params.serverUrl);
+
+        // the location may be relative to the creation URL
+        setUploadUrl(new URL(new URL(params.serverUrl), location).toString());
+        Logger.debug(LOG_TAG, "Created upload with ID " + params.id + " at " + uploadUrl);
+
+        return response;
+    }
+
+    private ServerResponse sendChunk(long offset) throws IOException {
+        long length = totalBytes - offset;
+        if (chunkSize > 0) {
+            length = Math.min(length, chunkSize);
+        }
+
+        List<NameValue> headers = new ArrayList<>(2);
+        headers.add(NameValue.header("Upload-Offset", Long.toString(offset)));
+        headers.add(NameValue.header("Content-Type", CONTENT_TYPE_OFFSET));
+
+        bodyOffset = offset;
+        bodyLength = length;
+
+        try {
+            return request("PATCH", uploadUrl, headers, length);
+        } finally {
+            bodyLength = 0;
+        }
+    }
+
+    private ServerResponse request(String method, String url, List<NameValue> headers,
+                                   long contentLength) throws IOException {
+
+        // HttpURLConnection doesn't support PATCH, so the method override defined by tus is used
+        if ("PATCH".equals(method) && UploadService.HTTP_STACK instanceof HurlStack) {
+            headers.add(NameValue.header("X-HTTP-Method-Override", method));
+            method = "POST";
+        }
+
+        List<NameValue> requestHeaders = new ArrayList<>(httpParams.getRequestHeaders());
+        requestHeaders.add(NameValue.header("User-Agent", httpParams.isCustomUserAgentDefined()
+                ? httpParams.customUserAgent : "AndroidUploadService/" + "3.4.2"));
+        requestHeaders.add(NameValue.header("Tus-Resumable", TUS_VERSION));
+        requestHeaders.addAll(headers);
+
+        HttpConnection connection = null;
+
+        try {
+            connection = UploadService.HTTP_STACK
+                    .createNewConnection(method, url)
+                    .setHeaders(requestHeaders)
+                    .setTotalBodyBytes(contentLength, true);
+
+            ServerResponse response = connection.getResponse(this);
+            Logger.debug(LOG_TAG, "Server responded with HTTP " + response.getHttpCode()
+                    + " to " + method + " of upload with ID: " + params.id);
+            return response;
+
+        } finally {
+            if (connection != null)
+                connection.close();
+        }
+    }
+
+    /**
+     * Completes the task with an error, or retries it, depending on the {@link RetryPolicy}.
+     */
+    private void onFailedResponse(ServerResponse response) throws RetryAfterException {
+        if (!shouldContinue)
+            return;
+
+        if (UploadService.getRetryPolicy().onResponse(response) == RetryPolicy.Decision.RETRY
+                && hasRetriesLeft())
+            throw new RetryAfterException(response);
+
+        broadcastCompleted(response, false);
+    }
+
+    private void setUploadUrl(String uploadUrl) {
+        this.uploadUrl = uploadUrl;
+        service.saveTaskExtra(params.id, PARAM_UPLOAD_URL, uploadUrl);
+    }
+
+    private String getUploadMetadata() {
+        List<NameValue> parameters = httpParams.getRequestParameters();
+        if (parameters.isEmpty())
+            return null;
+
+        StringBuilder metadata = new StringBuilder();
+        for (NameValue parameter : parameters) {
+            if (metadata.length() > 0)
+                metadata.append(',');
+
+            metadata.append(parameter.getName()).append(' ')
+                    .append(Base64.encodeToString(parameter.getValue().getBytes(UTF8), Base64.NO_WRAP));
+        }
+
+        return metadata.toString();
+    }
+
+    private static boolean isUploadGone(ServerResponse response) {
+        int code = response.getHttpCode();
+        return code == 403 || code == 404 || code == 410;
+    }
+
+    private static long getUploadOffset(ServerResponse response) {
+        String offset = getHeader(response, "Upload-Offset");
+        if (offset == null)
+            return -1;
+
+        try {
+            return Long.parseLong(offset.trim());
+        } catch (NumberFormatException exc) {
+            return -1;
+        }
+    }
+
+    private static String getHeader(ServerResponse response, String name) {
+        if (response.getHeaders() == null)
+            return null;
+
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()))
+                return header.getValue();
+        }
+
+        return null;
+    }
+
+    @Override
+    protected long getBodyLength() {
+        return params.files.get(0).length(service);
+    }
+
+    @Override
+    public void onBodyReady(BodyWriter bodyWriter) throws IOException {
+        if (bodyLength <= 0)
+            return;
+
+        bodyWriter.writeStream(params.files.get(0).getStream(service, bodyOffset, bodyLength), this);
+    }
+
+    @Override
+    protected void onSuccessfulUpload() {
+        addSuccessfullyUploadedFile(params.files.get(0));
+    }
+}
@@ -0,0 +1,76 @@
+package net.gotev.uploadservice;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Thrown by an upload task when the {@link RetryPolicy} says to retry the response of the server
+ * (e.g. HTTP 429 or 503) and the task has retries left. The next attempt is made after the time
+ * requested by the server in the Retry-After header, if present, otherwise after the usual backoff.
+ */
+public class RetryAfterException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ServerResponse response;
+    private final long retryAfter;
+
+    public RetryAfterException(ServerResponse response) {
+        super("Server responded with HTTP " + response.getHttpCode());
+        this.response = response;
+        this.retryAfter = parseRetryAfter(response.getHeaders());
+    }
+
+    /**
+     * Gets the server response.
+     * @return response
+     */
+    public ServerResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Gets the time to wait before the next attempt, as requested by the server.
+     * @return time in milliseconds, or -1 if the server has not sent a valid Retry-After header
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    private static long parseRetryAfter(Map<String, String> headers) {
+        if (headers == null)
+            return -1;
+
+        String value = null;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if ("Retry-After".equalsIgnoreCase(header.getKey())) {
+                value = header.getValue();
+                break;
+            }
+        }
+
+        if (value == null)
+            return -1;
+
+        value = value.trim();
+
+        // either delay-seconds or an HTTP-date (RFC 7231)
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ignored) { }
+
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException exc) {
+            return -1;
+        }
+    }
+}
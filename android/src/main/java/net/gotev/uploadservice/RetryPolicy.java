@@ -0,0 +1,44 @@
+package net.gotev.uploadservice;
+
+/**
+ * Decides what to do with the outcome of an upload attempt: a response from the server or an
+ * exception thrown while uploading. Set your own implementation in
+ * {@link UploadService#RETRY_POLICY} to change the default behaviour of
+ * {@link DefaultRetryPolicy}. The policy is called on the upload threads, so it must be
+ * thread safe.
+ */
+public interface RetryPolicy {
+
+    enum Decision {
+        /**
+         * The upload is completed successfully.
+         */
+        SUCCEED,
+
+        /**
+         * The upload is attempted again after a backoff, if it has retries left, otherwise it
+         * fails.
+         */
+        RETRY,
+
+        /**
+         * The upload fails right away, without using the retries left.
+         */
+        FAIL
+    }
+
+    /**
+     * Classifies a response received from the server.
+     * @param response server response, with its status code and headers
+     * @return what to do with the response
+     */
+    Decision onResponse(ServerResponse response);
+
+    /**
+     * Classifies an exception thrown during an upload attempt. Only {@link Decision#RETRY}
+     * and {@link Decision#FAIL} are meaningful here: any other value is treated as FAIL.
+     * @param exception exception thrown by the upload task
+     * @return what to do with the upload
+     */
+    Decision onException(Exception exception);
+}
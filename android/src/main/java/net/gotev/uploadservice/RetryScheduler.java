@@ -0,0 +1,174 @@
+package net.gotev.uploadservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the upload tasks which are waiting before their next attempt, either for the retry
+ * backoff to elapse or for a suitable network, and submits them again to the upload pool when
+ * it's time. Waiting tasks don't hold a thread of the pool, so other uploads can run meanwhile.
+ * A waiting task is submitted right away when it's cancelled, and the tasks waiting for network
+ * are submitted as soon as the network changes.
+ * A task which is still running when it's time to submit it (e.g. it has been woken up right
+ * after scheduling itself) is submitted only once its execution has finished, so it never runs
+ * on two threads at once. The upload pool must call {@link #onTaskStarted(Runnable)} and
+ * {@link #onTaskFinished(Runnable)} for this.
+ */
+final class RetryScheduler {
+
+    private static final String LOG_TAG = RetryScheduler.class.getSimpleName();
+
+    /**
+     * Time after which a task waiting for network checks the network again, in milliseconds,
+     * in case a network change has not been notified.
+     */
+    private static final long NETWORK_RECHECK_INTERVAL = 30 * 1000;
+
+    private static final class Waiting {
+        final ScheduledFuture<?> future;
+        final boolean forNetwork;
+
+        Waiting(ScheduledFuture<?> future, boolean forNetwork) {
+            this.future = future;
+            this.forNetwork = forNetwork;
+        }
+    }
+
+    private final Executor uploadPool;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final Map<UploadTask, Waiting> waitingTasks = new HashMap<>();
+    private final Set<Runnable> runningTasks = Collections.newSetFromMap(new IdentityHashMap<Runnable, Boolean>());
+    private final Set<Runnable> resubmitPending = Collections.newSetFromMap(new IdentityHashMap<Runnable, Boolean>());
+
+    RetryScheduler(Executor uploadPool) {
+        this.uploadPool = uploadPool;
+    }
+
+    /**
+     * Submits the task again to the upload pool after the given delay.
+     * @param task task to retry
+     * @param delay delay in milliseconds
+     */
+    void schedule(UploadTask task, long delay) {
+        schedule(task, delay, false);
+    }
+
+    /**
+     * Submits the task again to the upload pool when the network changes.
+     * @param task task waiting for network
+     */
+    void scheduleOnNetworkChange(UploadTask task) {
+        schedule(task, NETWORK_RECHECK_INTERVAL, true);
+    }
+
+    private synchronized void schedule(final UploadTask task, long delay, boolean forNetwork) {
+        ScheduledFuture<?> future = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RetryScheduler.this) {
+                    waitingTasks.remove(task);
+                }
+                submit(task);
+            }
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+
+        waitingTasks.put(task, new Waiting(future, forNetwork));
+    }
+
+    /**
+     * Submits the task right away, if it's waiting.
+     * @param task waiting task
+     */
+    void wakeUp(UploadTask task) {
+        Waiting waiting;
+
+        synchronized (this) {
+            waiting = waitingTasks.remove(task);
+        }
+
+        // if it can't be cancelled, the timer is already submitting it
+        if (waiting != null && waiting.future.cancel(false)) {
+            submit(task);
+        }
+    }
+
+    /**
+     * Submits right away all the tasks waiting for network.
+     */
+    void wakeUpWaitingForNetwork() {
+        List<UploadTask> tasks = new ArrayList<>();
+
+        synchronized (this) {
+            for (Map.Entry<UploadTask, Waiting> entry : waitingTasks.entrySet()) {
+                if (entry.getValue().forNetwork) {
+                    tasks.add(entry.getKey());
+                }
+            }
+        }
+
+        for (UploadTask task : tasks) {
+            wakeUp(task);
+        }
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Called by the upload pool before running a task.
+     * @param task task about to run
+     */
+    synchronized void onTaskStarted(Runnable task) {
+        runningTasks.add(task);
+    }
+
+    /**
+     * Called by the upload pool after a task has run, once it has been reported as finished to
+     * the queue. Submits the task again if it has been submitted while it was running.
+     * @param task task which has run
+     */
+    void onTaskFinished(Runnable task) {
+        boolean resubmit;
+
+        synchronized (this) {
+            runningTasks.remove(task);
+            resubmit = resubmitPending.remove(task);
+        }
+
+        if (resubmit) {
+            execute((UploadTask) task);
+        }
+    }
+
+    private void submit(UploadTask task) {
+        synchronized (this) {
+            if (runningTasks.contains(task)) {
+                resubmitPending.add(task);
+                return;
+            }
+        }
+
+        execute(task);
+    }
+
+    private void execute(UploadTask task) {
+        try {
+            uploadPool.execute(task);
+        } catch (RejectedExecutionException exc) {
+            // the service is being destroyed
+            Logger.error(LOG_TAG, "Unable to resume upload with ID " + task.params.id, exc);
+        }
+    }
+}
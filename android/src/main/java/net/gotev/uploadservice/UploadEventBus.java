@@ -0,0 +1,147 @@
+package net.gotev.uploadservice;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process bus which delivers the events of the uploads which have no
+ * {@link UploadStatusDelegate} set in their request. Events are delivered directly to the
+ * subscribers on the main thread, without going through the system as broadcasts do, so nothing
+ * is parceled. Subscribers can listen to all the uploads or to a single one. The subscribers
+ * list is copied on write, so the events are dispatched without locks.<br>
+ * Listeners in other processes can't subscribe: they have to receive the broadcasts, which are
+ * sent only if {@link UploadService#SEND_BROADCASTS} is enabled.
+ */
+public final class UploadEventBus {
+
+    private static final class Subscription {
+        final String uploadId;
+        final UploadStatusDelegate listener;
+
+        Subscription(String uploadId, UploadStatusDelegate listener) {
+            this.uploadId = uploadId;
+            this.listener = listener;
+        }
+
+        boolean accepts(String uploadId) {
+            return this.uploadId == null || this.uploadId.equals(uploadId);
+        }
+    }
+
+    private static final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private static final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private UploadEventBus() { }
+
+    /**
+     * Subscribes a listener to the events of all the uploads.
+     * Remember to unsubscribe it when it's no longer needed, as it's strongly referenced.
+     * @param listener listener to subscribe
+     */
+    public static void subscribe(UploadStatusDelegate listener) {
+        subscribe(null, listener);
+    }
+
+    /**
+     * Subscribes a listener to the events of a single upload.
+     * Remember to unsubscribe it when it's no longer needed, as it's strongly referenced.
+     * @param uploadId ID of the upload, or null to listen to all the uploads
+     * @param listener listener to subscribe
+     */
+    public static void subscribe(String uploadId, UploadStatusDelegate listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("listener MUST not be null!");
+
+        subscriptions.add(new Subscription(uploadId, listener));
+    }
+
+    /**
+     * Removes all the subscriptions of a listener.
+     * @param listener listener to unsubscribe
+     */
+    public static void unsubscribe(UploadStatusDelegate listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Checks if someone listens to the events of an upload.
+     * @param uploadId ID of the upload
+     * @return true if there's at least one subscriber for the upload
+     */
+    static boolean hasSubscribers(String uploadId) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.accepts(uploadId))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Delivers an event to the subscribers on the main thread.
+     * @param context context passed to the subscribers
+     * @param data event
+     */
+    static void post(final Context context, final BroadcastData data) {
+        final String uploadId = data.getUploadInfo().getUploadId();
+
+        if (!hasSubscribers(uploadId))
+            return;
+
+        mainThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Subscription subscription : subscriptions) {
+                    if (subscription.accepts(uploadId)) {
+                        deliver(context, subscription.listener, data);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Calls the listener method for the event.
+     * @param context context passed to the listener
+     * @param listener listener
+     * @param data event
+     */
+    static void deliver(Context context, UploadStatusDelegate listener, BroadcastData data) {
+        UploadInfo uploadInfo = data.getUploadInfo();
+
+        if (listener instanceof UploadServiceBroadcastReceiver
+                && !((UploadServiceBroadcastReceiver) listener).shouldAcceptEventFrom(uploadInfo)) {
+            return;
+        }
+
+        switch (data.getStatus()) {
+            case ERROR:
+                listener.onError(context, uploadInfo, data.getServerResponse(), data.getException());
+                break;
+
+            case COMPLETED:
+                listener.onCompleted(context, uploadInfo, data.getServerResponse());
+                break;
+
+            case IN_PROGRESS:
+            case WAITING_FOR_NETWORK:
+                // the upload info tells if the upload is waiting for network
+                listener.onProgress(context, uploadInfo);
+                break;
+
+            case CANCELLED:
+                listener.onCancelled(context, uploadInfo);
+                break;
+
+            default:
+                break;
+        }
+    }
+}
@@ -10,6 +10,7 @@ import net.gotev.uploadservice.schemehandlers.SchemeHandlerFactory;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Represents a file to upload.
@@ -23,6 +24,17 @@ public class UploadFile implements Parcelable {
     private LinkedHashMap<String, String> properties = new LinkedHashMap<>();
     protected final SchemeHandler handler;
 
+    /**
+     * Offset in bytes of the first byte to upload. Zero for whole file uploads.
+     */
+    protected final long offset;
+
+    /**
+     * Number of bytes to upload starting from {@link #offset}, or -1 to upload everything up
+     * to the end of the file.
+     */
+    protected final long rangeLength;
+
     /**
      * Creates a new UploadFile.
      *
@@ -31,15 +43,40 @@ public class UploadFile implements Parcelable {
      * @throws IllegalArgumentException if you passed invalid argument values
      */
     public UploadFile(String path) throws FileNotFoundException {
+        this(path, 0, -1);
+    }
+
+    /**
+     * Creates a new UploadFile which represents only a range of bytes of the given file.
+     * The bytes are read directly from the original file when the upload is performed,
+     * so no copy of the range is ever written to disk.
+     *
+     * @param path absolute path to a file or an Android content Uri string
+     * @param offset offset in bytes of the first byte to upload
+     * @param length number of bytes to upload, or -1 to upload up to the end of the file
+     * @throws FileNotFoundException if the file can't be found at the specified path
+     * @throws IllegalArgumentException if you passed invalid argument values
+     */
+    public UploadFile(String path, long offset, long length) throws FileNotFoundException {
 
         if (path == null || "".equals(path)) {
             throw new IllegalArgumentException("Please specify a file path!");
         }
 
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must be zero or positive!");
+        }
+
+        if (length < -1) {
+            throw new IllegalArgumentException("Length must be -1 or positive!");
+        }
+
         if (!SchemeHandlerFactory.getInstance().isSupported(path))
             throw new UnsupportedOperationException("Unsupported scheme: " + path);
 
         this.path = path;
+        this.offset = offset;
+        this.rangeLength = length;
 
         try {
             this.handler = SchemeHandlerFactory.getInstance().get(path);
@@ -49,23 +86,63 @@ public class UploadFile implements Parcelable {
     }
 
     /**
-     * Gets the file length in bytes.
+     * Gets the length in bytes of the data to upload. If this file represents a range,
+     * only the bytes in the range are counted.
      * @param context service context
      * @return file length
      */
     public long length(Context context) {
-        return handler.getLength(context);
+        if (!isRange())
+            return handler.getLength(context);
+
+        long available = Math.max(0, handler.getLength(context) - offset);
+        return rangeLength < 0 ? available : Math.min(rangeLength, available);
     }
 
     /**
-     * Gets the {@link InputStream} to read the content of this file.
+     * Gets the {@link InputStream} to read the content of this file. If this file represents a
+     * range, the stream reads only the bytes in the range, directly from the original file.
      * @param context service context
      * @return file input stream
      * @throws FileNotFoundException if the file can't be found at the path specified in the
      * constructor
      */
     public final InputStream getStream(Context context) throws FileNotFoundException {
-        return handler.getInputStream(context);
+        if (!isRange())
+            return handler.getInputStream(context);
+
+        return handler.getInputStream(context, offset, length(context));
+    }
+
+    /**
+     * Gets the {@link InputStream} to read only a part of the content of this file, e.g. to
+     * resume an interrupted upload. Offsets are relative to the data to upload, so if this
+     * file represents a range, they start from the first byte of the range.
+     * @param context service context
+     * @param skip number of bytes to skip
+     * @param count number of bytes to read
+     * @return file input stream
+     * @throws FileNotFoundException if the file can't be found at the path specified in the
+     * constructor
+     */
+    public final InputStream getStream(Context context, long skip, long count) throws FileNotFoundException {
+        return handler.getInputStream(context, offset + skip, count);
+    }
+
+    /**
+     * Checks if this file represents only a range of bytes of the original file.
+     * @return true if only a range of bytes will be uploaded, false otherwise
+     */
+    public final boolean isRange() {
+        return offset > 0 || rangeLength >= 0;
+    }
+
+    /**
+     * Gets the offset in bytes of the first byte to upload.
+     * @return offset, zero for whole file uploads
+     */
+    public final long getOffset() {
+        return offset;
     }
 
     /**
@@ -119,12 +196,16 @@ public class UploadFile implements Parcelable {
     public void writeToParcel(Parcel parcel, int arg1) {
         parcel.writeString(path);
         parcel.writeSerializable(properties);
+        parcel.writeLong(offset);
+        parcel.writeLong(rangeLength);
     }
 
     @SuppressWarnings("unchecked")
     private UploadFile(Parcel in) {
         this.path = in.readString();
         this.properties = (LinkedHashMap<String, String>) in.readSerializable();
+        this.offset = in.readLong();
+        this.rangeLength = in.readLong();
 
         try {
             this.handler = SchemeHandlerFactory.getInstance().get(path);
@@ -133,6 +214,10 @@ public class UploadFile implements Parcelable {
         }
     }
 
+    Map<String, String> getProperties() {
+        return properties;
+    }
+
     /**
      * Sets a property for this file.
      * If you want to store objects, serialize them in JSON strings.
@@ -175,12 +260,15 @@ public class UploadFile implements Parcelable {
 
         UploadFile that = (UploadFile) o;
 
-        return path.equals(that.path);
+        return path.equals(that.path) && offset == that.offset && rangeLength == that.rangeLength;
 
     }
 
     @Override
     public int hashCode() {
-        return path.hashCode();
+        int result = path.hashCode();
+        result = 31 * result + (int) (offset ^ (offset >>> 32));
+        result = 31 * result + (int) (rangeLength ^ (rangeLength >>> 32));
+        return result;
     }
 }
@@ -20,6 +20,8 @@ public class UploadInfo implements Parcelable {
     private long totalBytes;
     private int numberOfRetries;
     private Integer notificationID;
+    private String digest;
+    private boolean waitingForNetwork;
     private ArrayList<String> filesLeft = new ArrayList<>();
     private ArrayList<String> successfullyUploadedFiles = new ArrayList<>();
 
@@ -76,6 +78,8 @@ public class UploadInfo implements Parcelable {
         parcel.writeInt(notificationID == null ? -1 : notificationID);
         parcel.writeStringList(filesLeft);
         parcel.writeStringList(successfullyUploadedFiles);
+        parcel.writeString(digest);
+        parcel.writeByte((byte) (waitingForNetwork ? 1 : 0));
     }
 
     private UploadInfo(Parcel in) {
@@ -93,6 +97,8 @@ public class UploadInfo implements Parcelable {
 
         in.readStringList(filesLeft);
         in.readStringList(successfullyUploadedFiles);
+        digest = in.readString();
+        waitingForNetwork = in.readByte() == 1;
     }
 
     @Override
@@ -250,4 +256,29 @@ public class UploadInfo implements Parcelable {
     protected void setNotificationID(int id) {
         notificationID = id;
     }
+
+    /**
+     * Gets the hex encoded digest of the uploaded files content.
+     * @return digest string or null if the upload has not been completed yet or no digest
+     * algorithm has been set in the upload request
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    protected void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Checks if the upload is paused, waiting for a suitable network to continue.
+     * @return true if the upload is waiting for network
+     */
+    public boolean isWaitingForNetwork() {
+        return waitingForNetwork;
+    }
+
+    protected void setWaitingForNetwork(boolean waitingForNetwork) {
+        this.waitingForNetwork = waitingForNetwork;
+    }
 }
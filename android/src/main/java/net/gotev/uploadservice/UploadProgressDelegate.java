@@ -0,0 +1,26 @@
+package net.gotev.uploadservice;
+
+import android.content.Context;
+
+/**
+ * Optional interface for an {@link UploadStatusDelegate} which wants the upload progress as
+ * a lightweight snapshot. If the delegate implements it, the progress updates are delivered to
+ * {@link #onProgress(Context, String, long, long, long)} instead of
+ * {@link UploadStatusDelegate#onProgress(Context, UploadInfo)}, and no {@link UploadInfo} is
+ * created for them. The changes of the waiting for network status, and the completion, error and
+ * cancellation events, are still delivered with the full {@link UploadInfo}.
+ */
+public interface UploadProgressDelegate {
+    /**
+     * Called on the main thread when the upload progress changes. If the main thread is busy,
+     * consecutive updates are merged and only the latest one is delivered.
+     *
+     * @param context context
+     * @param uploadId ID of the upload
+     * @param uploadedBytes bytes uploaded so far
+     * @param totalBytes total bytes to upload
+     * @param timestamp time of the update, in milliseconds since epoch
+     */
+    void onProgress(final Context context, final String uploadId, final long uploadedBytes,
+                    final long totalBytes, final long timestamp);
+}
@@ -61,16 +61,9 @@ public abstract class UploadRequest<B extends UploadRequest<B>> {
      *         generated uploadId
      */
     public String startUpload() {
-        UploadService.setUploadStatusDelegate(params.id, delegate);
-
-        final Intent intent = new Intent(context, UploadService.class);
-        this.initializeIntent(intent);
-        intent.setAction(UploadService.getActionUpload());
+        final Intent intent = createIntent();
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            if (params.notificationConfig == null) {
-                throw new IllegalArgumentException("Android Oreo requires a notification configuration for the service to run. https://developer.android.com/reference/android/content/Context.html#startForegroundService(android.content.Intent)");
-            }
             context.startForegroundService(intent);
         } else {
             context.startService(intent);
@@ -79,6 +72,33 @@ public abstract class UploadRequest<B extends UploadRequest<B>> {
         return params.id;
     }
 
+    /**
+     * Checks if the request can be started.<br>
+     * Override this method in subclasses to check your own parameters, calling the super method.
+     *
+     * @throws IllegalArgumentException if the request is not valid
+     */
+    protected void validate() throws IllegalArgumentException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && params.notificationConfig == null) {
+            throw new IllegalArgumentException("Android Oreo requires a notification configuration for the service to run. https://developer.android.com/reference/android/content/Context.html#startForegroundService(android.content.Intent)");
+        }
+    }
+
+    /**
+     * Validates the request and creates the intent with which the service starts its task.
+     * @return upload intent
+     */
+    final Intent createIntent() {
+        validate();
+
+        UploadService.setUploadStatusDelegate(params.id, delegate);
+
+        final Intent intent = new Intent(context, UploadService.class);
+        this.initializeIntent(intent);
+        intent.setAction(UploadService.getActionUpload());
+        return intent;
+    }
+
     /**
      * Write any upload request data to the intent used to start the upload service.<br>
      * Override this method in subclasses to add your own custom parameters to the upload task.
@@ -138,6 +158,61 @@ public abstract class UploadRequest<B extends UploadRequest<B>> {
         return self();
     }
 
+    /**
+     * Sets the priority of this upload. When all the threads of the upload pool are busy, the
+     * waiting upload with the highest priority is started first, so that for example an upload
+     * the user is waiting for is not queued behind a backlog of background uploads.
+     * Uploads with the same priority are started in the order they have been requested.
+     *
+     * @param priority {@link UploadTaskParameters#PRIORITY_LOW},
+     *                 {@link UploadTaskParameters#PRIORITY_NORMAL} (default),
+     *                 {@link UploadTaskParameters#PRIORITY_HIGH} or any value in between
+     * @return self instance
+     */
+    public B setPriority(int priority) {
+        params.setPriority(priority);
+        return self();
+    }
+
+    /**
+     * Sets if this upload has to be made only on unmetered networks (e.g. Wi-Fi).
+     * While there's no suitable network, the upload waits for one without consuming its retries.
+     *
+     * @param unmeteredNetworkOnly true to upload only on unmetered networks. By default this
+     *                             setting is false and any connected network is used.
+     * @return self instance
+     */
+    public B setUnmeteredNetworkOnly(boolean unmeteredNetworkOnly) {
+        params.setUnmeteredNetworkOnly(unmeteredNetworkOnly);
+        return self();
+    }
+
+    /**
+     * Sets how often the progress of this upload is reported, to trade the granularity of the
+     * updates for less CPU usage and fewer events.
+     *
+     * @param progressPolicy progress policy, or null to use the default one, which reports the
+     *                       progress every {@link UploadService#PROGRESS_REPORT_INTERVAL} ms
+     * @return self instance
+     */
+    public B setProgressPolicy(ProgressPolicy progressPolicy) {
+        params.setProgressPolicy(progressPolicy);
+        return self();
+    }
+
+    /**
+     * Sets if this upload is saved on disk and restarted after the process gets killed, when
+     * {@link UploadService#PERSIST_TASKS} is enabled. Disable it for uploads whose resumption
+     * is managed by the app, e.g. the parts of an upload split in many requests.
+     *
+     * @param persistent false to not restore this upload. By default it's true.
+     * @return self instance
+     */
+    public B setPersistent(boolean persistent) {
+        params.setPersistent(persistent);
+        return self();
+    }
+
     /**
      * Sets the delegate which will receive the events for this upload request.
      * The events will be sent only to the delegate and not in broadcast. Delegate methods will
@@ -10,6 +10,8 @@ import android.os.Build;
 import android.os.IBinder;
 import android.os.PowerManager;
 
+import net.gotev.uploadservice.http.BandwidthLimiter;
+import net.gotev.uploadservice.http.BodyWriter;
 import net.gotev.uploadservice.http.HttpStack;
 import net.gotev.uploadservice.http.impl.HurlStack;
 
@@ -19,11 +21,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -42,10 +44,38 @@ public final class UploadService extends Service {
 
     // configurable values
     /**
-     * Sets how many threads to use to handle concurrent uploads.
+     * Sets how many threads to use to handle concurrent uploads, when
+     * {@link #ADAPTIVE_CONCURRENCY} is disabled.
      */
     public static int UPLOAD_POOL_SIZE = Runtime.getRuntime().availableProcessors();
 
+    /**
+     * If set to true, the number of uploads running at the same time is adapted to the available
+     * bandwidth, between {@link #MIN_CONCURRENT_UPLOADS} and {@link #MAX_CONCURRENT_UPLOADS},
+     * instead of being fixed to UPLOAD_POOL_SIZE. Uploads are bound by the network and not
+     * by the CPU, so more concurrent uploads are run on fast networks than on slow ones, where
+     * many competing connections would only slow each other down. Disabled by default, so the
+     * concurrency is set only by UPLOAD_POOL_SIZE unless this is enabled.
+     */
+    public static boolean ADAPTIVE_CONCURRENCY = false;
+
+    /**
+     * Minimum number of uploads running at the same time with adaptive concurrency.
+     */
+    public static int MIN_CONCURRENT_UPLOADS = 1;
+
+    /**
+     * Maximum number of uploads running at the same time with adaptive concurrency.
+     * This is also the number of threads of the upload pool.
+     */
+    public static int MAX_CONCURRENT_UPLOADS = 8;
+
+    /**
+     * Number of uploads running at the same time with adaptive concurrency, before the
+     * throughput has been measured.
+     */
+    public static int INITIAL_CONCURRENT_UPLOADS = 2;
+
     /**
      * When the number of threads is greater than UPLOAD_POOL_SIZE, this is the maximum time that
      * excess idle threads will wait for new tasks before terminating.
@@ -93,6 +123,9 @@ public final class UploadService extends Service {
      * Sets the time to wait in milliseconds before the next attempt when an upload fails
      * for the first time. From the second time onwards, this value will be multiplied by
      * {@link UploadService#BACKOFF_MULTIPLIER} to get the time to wait before the next attempt.
+     * The actual wait is a random time between zero and this backoff, so that many devices
+     * failing at the same time don't retry all together, unless the server responded with
+     * a Retry-After header, which is followed instead.
      */
     public static int INITIAL_RETRY_WAIT_TIME = 1000;
 
@@ -111,14 +144,64 @@ public final class UploadService extends Service {
      * indefinitely.
      */
     public static int MAX_RETRY_WAIT_TIME = 10 * 10 * 1000;
+
+    /**
+     * How long (in milliseconds) an upload waits in the queue before its priority is raised by
+     * one, so that low priority uploads eventually run even if higher priority uploads keep
+     * being requested. With the default value, a {@link UploadTaskParameters#PRIORITY_LOW} upload
+     * gets ahead of new {@link UploadTaskParameters#PRIORITY_NORMAL} ones after 10 seconds.
+     * Aging never raises a priority above {@link UploadTaskParameters#PRIORITY_HIGH} - 1, so new
+     * high priority uploads always run first.
+     */
+    public static int PRIORITY_AGING_INTERVAL = 1000;
+
+    /**
+     * Maximum number of uploads running at the same time to a single host, for the hosts which
+     * don't have a specific limit set with {@link #setMaxUploadsPerHost(String, int)}.
+     * When a host reaches its limit, its other uploads wait in the queue, while the free threads
+     * run the uploads to other hosts. By default there's no limit besides the pool size.
+     */
+    public static int MAX_UPLOADS_PER_HOST = Integer.MAX_VALUE;
+
+    /**
+     * If set to true, the upload tasks are saved on disk until they finish, and the ones which
+     * were queued or running are started again when the service is restarted after the system
+     * killed the process (e.g. on low memory), unless they are not persistent (see
+     * {@link UploadRequest#setPersistent(boolean)}). Restored uploads start over, with the
+     * retries they had left, and send their events through {@link UploadEventBus}, as their
+     * delegates don't exist anymore.
+     */
+    public static boolean PERSIST_TASKS = true;
+
+    /**
+     * Decides which responses and exceptions are retried, which ones fail right away and which
+     * responses are successful. By default {@link DefaultRetryPolicy} is used.
+     */
+    public static RetryPolicy RETRY_POLICY = new DefaultRetryPolicy();
+
+    /**
+     * If set to true, the events of the uploads which have no delegate are sent also as system
+     * broadcasts, which are needed only by receivers running in other processes or declared in
+     * the manifest. In the app process they are delivered through {@link UploadEventBus}.
+     */
+    public static boolean SEND_BROADCASTS = false;
+
+    /**
+     * Minimum time between two updates of the progress notification of an upload, in
+     * milliseconds. It's independent of the progress reports, as the system drops the updates of
+     * apps which post notifications more often than a few times per second. The last update is
+     * always posted.
+     */
+    public static int NOTIFICATION_UPDATE_INTERVAL = 1000;
     // end configurable values
 
     protected static final int UPLOAD_NOTIFICATION_BASE_ID = 1234; // Something unique
 
     /**
-     * The minimum interval between progress reports in milliseconds.
-     * If the upload Tasks report more frequently, we will throttle notifications.
-     * We aim for 6 updates per second.
+     * The default minimum interval between progress reports in milliseconds.
+     * If the upload Tasks report more frequently, we will throttle the reports.
+     * We aim for 6 updates per second. Each upload can change it with its {@link ProgressPolicy}.
+     * Notifications are throttled further with {@link #NOTIFICATION_UPDATE_INTERVAL}.
      */
     protected static final long PROGRESS_REPORT_INTERVAL = 166;
 
@@ -126,6 +209,7 @@ public final class UploadService extends Service {
     private static final String ACTION_UPLOAD_SUFFIX = ".uploadservice.action.upload";
     protected static final String PARAM_TASK_PARAMETERS = "taskParameters";
     protected static final String PARAM_TASK_CLASS = "taskClass";
+    private static final String PARAM_BATCH = "batch";
 
     // constants used in broadcast intents
     private static final String BROADCAST_ACTION_SUFFIX = ".uploadservice.broadcast.status";
@@ -136,9 +220,18 @@ public final class UploadService extends Service {
     private int notificationIncrementalId = 0;
     private static final Map<String, UploadTask> uploadTasksMap = new ConcurrentHashMap<>();
     private static final Map<String, WeakReference<UploadStatusDelegate>> uploadDelegates = new ConcurrentHashMap<>();
-    private final BlockingQueue<Runnable> uploadTasksQueue = new LinkedBlockingQueue<>();
+    private static final Map<String, Integer> maxUploadsPerHost = new ConcurrentHashMap<>();
+    private static final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+    // upload intents handed over by enqueueAll, which are started by the next batch command
+    private static final Queue<Intent> pendingBatchIntents = new ConcurrentLinkedQueue<>();
+    private final UploadTaskQueue uploadTasksQueue = new UploadTaskQueue();
     private static volatile String foregroundUploadId = null;
     private ThreadPoolExecutor uploadThreadPool;
+    private NetworkMonitor networkMonitor;
+    private UploadTaskStore taskStore;
+    private ConcurrencyController concurrencyController;
+    private RetryScheduler retryScheduler;
+    private boolean tasksRestored = false;
     private Timer idleTimer = null;
 
     protected static String getActionUpload() {
@@ -149,6 +242,96 @@ public final class UploadService extends Service {
         return NAMESPACE + BROADCAST_ACTION_SUFFIX;
     }
 
+    /**
+     * Sets the maximum number of uploads running at the same time to a host, overriding
+     * {@link #MAX_UPLOADS_PER_HOST} for that host.
+     * @param host host name, as in the server URL of the uploads (e.g. bucket.s3.amazonaws.com)
+     * @param maxUploads maximum number of concurrent uploads, or a value {@code <= 0} to use
+     *                   the default limit again
+     */
+    public static void setMaxUploadsPerHost(String host, int maxUploads) {
+        if (maxUploads <= 0) {
+            maxUploadsPerHost.remove(host.toLowerCase(Locale.US));
+        } else {
+            maxUploadsPerHost.put(host.toLowerCase(Locale.US), maxUploads);
+        }
+    }
+
+    /**
+     * Gets the maximum number of uploads running at the same time to a host.
+     * @param host host name
+     * @return the limit set for the host, or {@link #MAX_UPLOADS_PER_HOST}
+     */
+    public static int getMaxUploadsPerHost(String host) {
+        Integer maxUploads = maxUploadsPerHost.get(host);
+        return maxUploads != null ? maxUploads : Math.max(1, MAX_UPLOADS_PER_HOST);
+    }
+
+    /**
+     * Sets the maximum total bandwidth used by all the uploads. It can be changed at any time,
+     * also while uploading, e.g. to lower it on mobile networks and remove it on Wi-Fi.
+     * The bandwidth is evenly shared among the running uploads.
+     * @param bytesPerSecond maximum total upload rate in bytes per second, or a value
+     *                       {@code <= 0} for no limit (default)
+     */
+    public static void setMaxUploadRate(long bytesPerSecond) {
+        bandwidthLimiter.setRate(bytesPerSecond);
+    }
+
+    /**
+     * Gets the maximum total bandwidth used by all the uploads.
+     * @return maximum total upload rate in bytes per second, or 0 if there's no limit
+     */
+    public static long getMaxUploadRate() {
+        return bandwidthLimiter.getRate();
+    }
+
+    /**
+     * Gets the bandwidth limiter shared by all the uploads, which is used by {@link BodyWriter}.
+     * @return bandwidth limiter
+     */
+    public static BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    /**
+     * Starts many uploads with a single service start, instead of one per upload as
+     * {@link UploadRequest#startUpload()} does. The requests are handed over to the service
+     * in memory, so their parameters are never parceled, and the service is started once for
+     * the whole batch. The requests are all validated before starting any of them.
+     * @param context application context
+     * @param requests upload requests to start, in order
+     * @return the IDs of the uploads, in the same order as the requests
+     * @throws IllegalArgumentException if one of the requests is not valid
+     */
+    public static List<String> enqueueAll(final Context context,
+                                          final List<? extends UploadRequest<?>> requests) {
+        List<Intent> intents = new ArrayList<>(requests.size());
+        List<String> uploadIds = new ArrayList<>(requests.size());
+
+        for (UploadRequest<?> request : requests) {
+            intents.add(request.createIntent());
+            uploadIds.add(request.params.id);
+        }
+
+        if (intents.isEmpty())
+            return uploadIds;
+
+        pendingBatchIntents.addAll(intents);
+
+        Intent intent = new Intent(context, UploadService.class);
+        intent.setAction(getActionUpload());
+        intent.putExtra(PARAM_BATCH, true);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+
+        return uploadIds;
+    }
+
     /**
      * Stops the upload task with the given uploadId.
      * @param uploadId The unique upload id
@@ -231,17 +414,57 @@ public final class UploadService extends Service {
         if (!wakeLock.isHeld())
             wakeLock.acquire();
 
+        networkMonitor = new NetworkMonitor(this, new NetworkMonitor.OnNetworkChangedListener() {
+            @Override
+            public void onNetworkChanged() {
+                retryScheduler.wakeUpWaitingForNetwork();
+            }
+        });
+
+        if (PERSIST_TASKS) {
+            taskStore = new UploadTaskStore(this);
+        }
+
         if (UPLOAD_POOL_SIZE <= 0) {
             UPLOAD_POOL_SIZE = Runtime.getRuntime().availableProcessors();
         }
 
+        int poolSize = UPLOAD_POOL_SIZE;
+
+        if (ADAPTIVE_CONCURRENCY) {
+            poolSize = Math.max(1, MAX_CONCURRENT_UPLOADS);
+            concurrencyController = new ConcurrencyController(uploadTasksQueue);
+            concurrencyController.start();
+        }
+
         // Creates a thread pool manager
         uploadThreadPool = new ThreadPoolExecutor(
-                UPLOAD_POOL_SIZE,       // Initial pool size
-                UPLOAD_POOL_SIZE,       // Max pool size
+                poolSize,               // Initial pool size
+                poolSize,               // Max pool size
                 KEEP_ALIVE_TIME_IN_SECONDS,
                 TimeUnit.SECONDS,
-                uploadTasksQueue);
+                uploadTasksQueue) {
+            @Override
+            protected void beforeExecute(Thread thread, Runnable task) {
+                super.beforeExecute(thread, task);
+                retryScheduler.onTaskStarted(task);
+            }
+
+            @Override
+            protected void afterExecute(Runnable task, Throwable throwable) {
+                super.afterExecute(task, throwable);
+                uploadTasksQueue.onTaskFinished(task);
+                retryScheduler.onTaskFinished(task);
+            }
+        };
+
+        // the pool hands a task straight to a new thread when it has less than poolSize
+        // threads, so all the threads are started now for every task to go through the queue,
+        // which applies the priorities and the per host limits
+        uploadThreadPool.prestartAllCoreThreads();
+
+        retryScheduler = new RetryScheduler(uploadThreadPool);
+        networkMonitor.start();
     }
 
     @Override
@@ -251,6 +474,13 @@ public final class UploadService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        // after the process has been killed, the service is restarted with a null intent,
+        // or with the intent of a new upload if it has been started again by the app first
+        if (taskStore != null && !tasksRestored) {
+            tasksRestored = true;
+            restoreTasks();
+        }
+
         if (intent == null || !getActionUpload().equals(intent.getAction())) {
             return shutdownIfThereArentAnyActiveTasks();
         }
@@ -261,19 +491,55 @@ public final class UploadService extends Service {
 
         Logger.info(TAG, String.format(Locale.getDefault(), "Starting service with namespace: %s, " +
                 "upload pool size: %d, %ds idle thread keep alive time. Foreground execution is %s",
-                NAMESPACE, UPLOAD_POOL_SIZE, KEEP_ALIVE_TIME_IN_SECONDS,
+                NAMESPACE, uploadThreadPool.getMaximumPoolSize(), KEEP_ALIVE_TIME_IN_SECONDS,
                 (isExecuteInForeground() ? "enabled" : "disabled")));
 
+        if (intent.getBooleanExtra(PARAM_BATCH, false)) {
+            if (!startBatch()) {
+                return shutdownIfThereArentAnyActiveTasks();
+            }
+        } else if (!startTask(intent)) {
+            return shutdownIfThereArentAnyActiveTasks();
+        }
+
+        return START_STICKY;
+    }
+
+    /**
+     * Starts all the tasks handed over by {@link #enqueueAll(Context, List)}.
+     * @return true if at least one task has been submitted
+     */
+    private boolean startBatch() {
+        int submitted = 0;
+        Intent taskIntent;
+
+        while ((taskIntent = pendingBatchIntents.poll()) != null) {
+            if (startTask(taskIntent)) {
+                submitted++;
+            }
+        }
+
+        Logger.info(TAG, "Started " + submitted + " upload tasks from batch");
+
+        return submitted > 0;
+    }
+
+    /**
+     * Creates the task for the given intent and submits it to the upload pool.
+     * @param intent upload intent
+     * @return true if the task has been submitted
+     */
+    private boolean startTask(Intent intent) {
         UploadTask currentTask = getTask(intent);
 
         if (currentTask == null) {
-            return shutdownIfThereArentAnyActiveTasks();
+            return false;
         }
 
         if (uploadTasksMap.containsKey(currentTask.params.id)) {
             Logger.error(TAG, "Preventing upload with id: " + currentTask.params.id
                     + " to be uploaded twice! Please check your code and fix it!");
-            return shutdownIfThereArentAnyActiveTasks();
+            return false;
         }
 
         clearIdleTimer();
@@ -284,10 +550,40 @@ public final class UploadService extends Service {
         currentTask.setLastProgressNotificationTime(0)
                    .setNotificationId(UPLOAD_NOTIFICATION_BASE_ID + notificationIncrementalId);
 
+        if (taskStore != null && currentTask.params.isPersistent()) {
+            taskStore.save(currentTask.params.id, intent);
+        }
+
         uploadTasksMap.put(currentTask.params.id, currentTask);
         uploadThreadPool.execute(currentTask);
 
-        return START_STICKY;
+        return true;
+    }
+
+    /**
+     * Starts again the tasks saved on disk, which were queued or running when the process
+     * has been killed.
+     */
+    private void restoreTasks() {
+        List<Intent> intents = taskStore.restore(this);
+
+        if (intents.isEmpty())
+            return;
+
+        Logger.info(TAG, "Restoring " + intents.size() + " upload tasks");
+
+        for (Intent intent : intents) {
+            String uploadId = null;
+            UploadTaskParameters params = intent.getParcelableExtra(PARAM_TASK_PARAMETERS);
+            if (params != null) {
+                uploadId = params.id;
+            }
+
+            if (!startTask(intent) && uploadId != null && !uploadTasksMap.containsKey(uploadId)) {
+                // the task can't be created anymore, e.g. its file has been deleted
+                taskStore.remove(uploadId);
+            }
+        }
     }
 
     private void clearIdleTimer() {
@@ -323,7 +619,24 @@ public final class UploadService extends Service {
     public void onDestroy() {
         super.onDestroy();
 
+        // the cancelled tasks may not finish before the process is gone, so they are removed
+        // from the store now, to not restore them
+        if (taskStore != null) {
+            for (String uploadId : uploadTasksMap.keySet()) {
+                taskStore.remove(uploadId);
+            }
+        }
+
+        // the waiting tasks are submitted to the pool to broadcast their cancellation,
+        // so the pool is shut down afterwards
         stopAllUploads();
+        networkMonitor.stop();
+        retryScheduler.shutdown();
+
+        if (concurrencyController != null) {
+            concurrencyController.stop();
+        }
+
         uploadThreadPool.shutdown();
 
         if (isExecuteInForeground()) {
@@ -398,6 +711,49 @@ public final class UploadService extends Service {
         return false;
     }
 
+    static RetryPolicy getRetryPolicy() {
+        RetryPolicy retryPolicy = RETRY_POLICY;
+        return retryPolicy != null ? retryPolicy : new DefaultRetryPolicy();
+    }
+
+    NetworkMonitor getNetworkMonitor() {
+        return networkMonitor;
+    }
+
+    RetryScheduler getRetryScheduler() {
+        return retryScheduler;
+    }
+
+    /**
+     * Called by the upload tasks for each chunk of data written to the server, to measure the
+     * aggregate throughput of the uploads.
+     */
+    void onBytesWritten(int bytesWritten) {
+        if (concurrencyController != null) {
+            concurrencyController.onBytesWritten(bytesWritten);
+        }
+    }
+
+    /**
+     * Saves the progress of a task, so that it's restored with the right number of attempts
+     * if the process gets killed.
+     */
+    void saveCheckpoint(String uploadId, int attempts, long uploadedBytes, boolean force) {
+        if (taskStore != null) {
+            taskStore.checkpoint(uploadId, attempts, uploadedBytes, force);
+        }
+    }
+
+    /**
+     * Saves a string extra of a task, so that it's given back to the task if it's restored
+     * after the process gets killed.
+     */
+    void saveTaskExtra(String uploadId, String key, String value) {
+        if (taskStore != null) {
+            taskStore.putExtra(uploadId, key, value);
+        }
+    }
+
     /**
      * Called by each task when it is completed (either successfully, with an error or due to
      * user cancellation).
@@ -407,6 +763,10 @@ public final class UploadService extends Service {
         UploadTask task = uploadTasksMap.remove(uploadId);
         uploadDelegates.remove(uploadId);
 
+        if (taskStore != null) {
+            taskStore.remove(uploadId);
+        }
+
         // un-hold foreground upload ID if it's been hold
         if (isExecuteInForeground() && task != null && task.params.id.equals(foregroundUploadId)) {
             Logger.debug(TAG, uploadId + " now un-holded the foreground notification");
@@ -422,7 +782,8 @@ public final class UploadService extends Service {
 
     /**
      * Sets the delegate which will receive the events for the given upload request.
-     * Those events will not be sent in broadcast, but only to the delegate.
+     * Those events will not be sent to the {@link UploadEventBus} nor in broadcast, but only to
+     * the delegate.
      * @param uploadId uploadID of the upload request
      * @param delegate the delegate instance
      */
@@ -452,8 +813,8 @@ public final class UploadService extends Service {
             Logger.info(TAG, "\n\n\nUpload delegate for upload with Id " + uploadId + " is gone!\n" +
                     "Probably you have set it in an activity and the user navigated away from it\n" +
                     "before the upload was completed. From now on, the events will be dispatched\n" +
-                    "with broadcast intents. If you see this message, consider switching to the\n" +
-                    "UploadServiceBroadcastReceiver registered globally in your manifest.\n" +
+                    "to the UploadEventBus subscribers. If you see this message, consider\n" +
+                    "subscribing a listener to the UploadEventBus for the whole app lifetime.\n" +
                     "Read this:\n" +
                     "https://github.com/gotev/android-upload-service/wiki/Monitoring-upload-status\n");
         }
@@ -8,8 +8,10 @@ import android.content.IntentFilter;
 /**
  * Broadcast receiver to subclass to create a receiver for {@link UploadService} events.
  *
- * It provides the boilerplate code to properly handle broadcast messages coming from the
- * upload service and dispatch them to the proper handler method.
+ * It provides the boilerplate code to properly handle the events coming from the
+ * upload service and dispatch them to the proper handler method. Registered with
+ * {@link #register(Context)} it receives the events through the {@link UploadEventBus}, while
+ * broadcasts are received only if {@link UploadService#SEND_BROADCASTS} is enabled.
  *
  * @author gotev (Aleksandar Gotev)
  * @author eliasnaur
@@ -20,6 +22,8 @@ import android.content.IntentFilter;
 public class UploadServiceBroadcastReceiver extends BroadcastReceiver
         implements UploadStatusDelegate {
 
+    private boolean registeredForBroadcasts = false;
+
     @Override
     public void onReceive(Context context, Intent intent) {
         if (intent == null || !UploadService.getActionBroadcast().equals(intent.getAction()))
@@ -32,32 +36,7 @@ public class UploadServiceBroadcastReceiver extends BroadcastReceiver
             return;
         }
 
-        UploadInfo uploadInfo = data.getUploadInfo();
-
-        if (!shouldAcceptEventFrom(uploadInfo)) {
-            return;
-        }
-
-        switch (data.getStatus()) {
-            case ERROR:
-                onError(context, uploadInfo, data.getServerResponse(), data.getException());
-                break;
-
-            case COMPLETED:
-                onCompleted(context, uploadInfo, data.getServerResponse());
-                break;
-
-            case IN_PROGRESS:
-                onProgress(context, uploadInfo);
-                break;
-
-            case CANCELLED:
-                onCancelled(context, uploadInfo);
-                break;
-
-            default:
-                break;
-        }
+        UploadEventBus.deliver(context, this, data);
     }
 
     /**
@@ -76,14 +55,29 @@ public class UploadServiceBroadcastReceiver extends BroadcastReceiver
      * If you use this receiver in an {@link android.app.Activity}, you have to call this method inside
      * {@link android.app.Activity#onResume()}, after {@code super.onResume();}.<br>
      * If you use it in a {@link android.app.Service}, you have to
-     * call this method inside {@link android.app.Service#onCreate()}, after {@code super.onCreate();}.
+     * call this method inside {@link android.app.Service#onCreate()}, after {@code super.onCreate();}.<br>
+     * The receiver is subscribed to the {@link UploadEventBus}, so it receives the events in the
+     * app process, without broadcasts.
      *
      * @param context context in which to register this receiver
      */
     public void register(final Context context) {
+        UploadEventBus.subscribe(this);
+    }
+
+    /**
+     * Register this upload receiver for the system broadcasts, which are sent only if
+     * {@link UploadService#SEND_BROADCASTS} is enabled. This is needed only if the receiver runs
+     * in a different process than the upload service. Don't call also {@link #register(Context)}
+     * for the same receiver, or it will receive every event twice.
+     *
+     * @param context context in which to register this receiver
+     */
+    public void registerForBroadcasts(final Context context) {
         final IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(UploadService.getActionBroadcast());
         context.registerReceiver(this, intentFilter);
+        registeredForBroadcasts = true;
     }
 
     /**
@@ -96,7 +90,12 @@ public class UploadServiceBroadcastReceiver extends BroadcastReceiver
      * @param context context in which to unregister this receiver
      */
     public void unregister(final Context context) {
-        context.unregisterReceiver(this);
+        UploadEventBus.unsubscribe(this);
+
+        if (registeredForBroadcasts) {
+            context.unregisterReceiver(this);
+            registeredForBroadcasts = false;
+        }
     }
 
     @Override
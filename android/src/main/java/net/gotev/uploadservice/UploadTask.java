@@ -9,6 +9,7 @@ import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
+import android.text.TextUtils;
 import androidx.core.app.NotificationCompat;
 
 import java.io.File;
@@ -18,6 +19,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Base class to subclass when creating upload tasks. It contains the logic common to all the tasks,
@@ -62,14 +65,23 @@ public abstract class UploadTask implements Runnable {
      * value at every step of the upload protocol you are implementing, and after that each chunk
      * of data that has been successfully transferred.
      */
-    protected boolean shouldContinue = true;
+    protected volatile boolean shouldContinue = true;
 
     private int notificationId;
     private long lastProgressNotificationTime;
+    private long lastProgressUploadedBytes;
+    private long lastCheckpointTime;
     private NotificationManager notificationManager;
     private Handler mainThreadHandler;
     private long notificationCreationTimeMillis;
 
+    // the progress notification is built once, and only its content is changed at each update
+    private NotificationCompat.Builder progressNotification;
+    private long lastNotificationUpdateTime;
+    private String lastNotificationTitle;
+    private String lastNotificationText;
+    private int lastNotificationProgress;
+
     /**
      * Total bytes to transfer. You should initialize this value in the
      * {@link UploadTask#upload()} method of your subclasses, before starting the upload data
@@ -93,6 +105,50 @@ public abstract class UploadTask implements Runnable {
      */
     private int attempts;
 
+    /**
+     * Attempts made before the process was killed, if this task has been restored after a
+     * restart of the service.
+     */
+    private int restoredAttempts;
+
+    /**
+     * Bytes uploaded before the process was killed, if this task has been restored after a
+     * restart of the service, otherwise zero. Tasks able to resume an interrupted upload
+     * can start from here.
+     */
+    protected long restoredUploadedBytes;
+
+    private static final Random random = new Random();
+
+    /**
+     * Written and read only by the pool threads which run this task, one at a time.
+     */
+    private boolean started = false;
+    private boolean waitingForNetwork = false;
+
+    /**
+     * Latest progress for the {@link UploadProgressDelegate}, written by the upload thread and
+     * delivered on the main thread by a single reusable runnable, so that progress updates
+     * don't allocate. Updates made while the runnable is pending are coalesced.
+     */
+    private volatile UploadProgressDelegate progressDelegate;
+    private volatile long progressUploadedBytes;
+    private volatile long progressTotalBytes;
+    private volatile long progressTimestamp;
+    private final AtomicBoolean progressPosted = new AtomicBoolean(false);
+    private final Runnable progressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            progressPosted.set(false);
+
+            UploadProgressDelegate delegate = progressDelegate;
+            if (delegate != null) {
+                delegate.onProgress(service, params.id, progressUploadedBytes,
+                                    progressTotalBytes, progressTimestamp);
+            }
+        }
+    };
+
     /**
      * Implementation of the upload logic.
      * @throws Exception if an error occurs
@@ -104,6 +160,14 @@ public abstract class UploadTask implements Runnable {
      */
     protected void onSuccessfulUpload() {}
 
+    /**
+     * Implement in subclasses which compute a digest of the uploaded content while uploading it.
+     * @return hex encoded digest of the uploaded content, or null if it has not been computed
+     */
+    protected String getDigest() {
+        return null;
+    }
+
     public UploadTask() {
         startTime = new Date().getTime();
     }
@@ -122,6 +186,8 @@ public abstract class UploadTask implements Runnable {
         this.params = intent.getParcelableExtra(UploadService.PARAM_TASK_PARAMETERS);
         this.service = service;
         this.mainThreadHandler = new Handler(service.getMainLooper());
+        this.restoredAttempts = intent.getIntExtra(UploadTaskStore.PARAM_RESTORED_ATTEMPTS, 0);
+        this.restoredUploadedBytes = intent.getLongExtra(UploadTaskStore.PARAM_RESTORED_UPLOADED_BYTES, 0);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && params.notificationConfig != null) {
             String notificationChannelId = params.notificationConfig.getNotificationChannelId();
@@ -139,50 +205,169 @@ public abstract class UploadTask implements Runnable {
 
     }
 
+    /**
+     * Makes the next upload attempt. When the attempt fails and the upload has to be retried
+     * later, or when there's no suitable network, the task is handed to the
+     * {@link RetryScheduler}, which runs it again when it's time, so no thread of the upload pool
+     * is held while waiting.
+     */
     @Override
     public final void run() {
 
-        createNotification(new UploadInfo(params.id));
+        if (!started) {
+            started = true;
+            createNotification(new UploadInfo(params.id));
 
-        attempts = 0;
+            // the attempt interrupted by the process kill didn't fail, so it's not counted
+            attempts = Math.max(0, restoredAttempts - 1);
+        }
 
-        int errorDelay = UploadService.INITIAL_RETRY_WAIT_TIME;
+        if (!shouldContinue) {
+            broadcastCancelled();
+            return;
+        }
 
-        while (attempts <= params.getMaxRetries() && shouldContinue) {
-            attempts++;
+        if (!isNetworkAvailable()) {
+            waitForNetwork();
+            return;
+        }
 
-            try {
-                upload();
-                break;
+        if (waitingForNetwork) {
+            Logger.info(LOG_TAG, "Network available, resuming upload with ID " + params.id);
+            waitingForNetwork = false;
+            broadcastWaitingForNetwork(false);
+        }
 
-            } catch (Exception exc) {
-                if (!shouldContinue) {
-                    break;
-                } else if (attempts > params.getMaxRetries()) {
-                    broadcastError(exc);
-                } else {
-                    Logger.error(LOG_TAG, "Error in uploadId " + params.id
-                            + " on attempt " + attempts
-                            + ". Waiting " + errorDelay / 1000 + "s before next attempt. ", exc);
+        attempts++;
+        service.saveCheckpoint(params.id, attempts, 0, true);
 
-                    long beforeSleepTs = System.currentTimeMillis();
+        try {
+            upload();
+        } catch (Exception exc) {
+            onAttemptFailed(exc);
+            return;
+        }
 
-                    while (shouldContinue && System.currentTimeMillis() < (beforeSleepTs + errorDelay)) {
-                        try {
-                            Thread.sleep(2000);
-                        } catch (Throwable ignored) { }
-                    }
+        if (!shouldContinue) {
+            broadcastCancelled();
+        }
+    }
 
-                    errorDelay *= UploadService.BACKOFF_MULTIPLIER;
-                    if (errorDelay > UploadService.MAX_RETRY_WAIT_TIME) {
-                        errorDelay = UploadService.MAX_RETRY_WAIT_TIME;
-                    }
-                }
+    private void onAttemptFailed(Exception exc) {
+        if (!shouldContinue) {
+            broadcastCancelled();
+
+        } else if (!isNetworkAvailable()) {
+            // the attempt failed because the network went away, so it's not counted and
+            // the upload is retried as soon as the network comes back, without backoff
+            Logger.info(LOG_TAG, "Network lost during uploadId " + params.id
+                    + " on attempt " + attempts + ". " + exc.getMessage());
+            attempts--;
+            waitForNetwork();
+
+        } else if (!hasRetriesLeft()
+                || UploadService.getRetryPolicy().onException(exc) != RetryPolicy.Decision.RETRY) {
+            broadcastError(exc);
+
+        } else {
+            long delay = getRetryDelay(exc);
+
+            Logger.error(LOG_TAG, "Error in uploadId " + params.id
+                    + " on attempt " + attempts
+                    + ". Waiting " + delay + "ms before next attempt. ", exc);
+
+            service.getRetryScheduler().schedule(this, delay);
+
+            // cancelled while it was being scheduled
+            if (!shouldContinue) {
+                service.getRetryScheduler().wakeUp(this);
             }
         }
+    }
+
+    /**
+     * Checks if the upload can be attempted again after the current attempt fails.
+     * @return true if there are retries left
+     */
+    protected final boolean hasRetriesLeft() {
+        return attempts <= params.getMaxRetries();
+    }
+
+    /**
+     * Gets the time to wait before the next attempt. That's the time requested by the server
+     * if it responded with a Retry-After header, otherwise a random time between zero and the
+     * exponential backoff (full jitter), so that the devices which failed at the same time
+     * don't all retry at the same time.
+     * @param exc exception thrown by the failed attempt
+     * @return time to wait in milliseconds
+     */
+    private long getRetryDelay(Exception exc) {
+        if (exc instanceof RetryAfterException) {
+            long retryAfter = ((RetryAfterException) exc).getRetryAfter();
+            if (retryAfter >= 0)
+                return retryAfter;
+        }
+
+        long backoff = Math.max(0, UploadService.INITIAL_RETRY_WAIT_TIME);
+        for (int i = 1; i < attempts && backoff < UploadService.MAX_RETRY_WAIT_TIME; i++) {
+            backoff *= UploadService.BACKOFF_MULTIPLIER;
+        }
+        backoff = Math.min(backoff, UploadService.MAX_RETRY_WAIT_TIME);
+
+        return (long) (random.nextDouble() * backoff);
+    }
 
+    private boolean isNetworkAvailable() {
+        return service.getNetworkMonitor().isNetworkAvailable(params.isUnmeteredNetworkOnly());
+    }
+
+    /**
+     * Broadcasts the waiting for network status, if not already done, and hands the task
+     * to the retry scheduler until the network changes.
+     */
+    private void waitForNetwork() {
+        if (!waitingForNetwork) {
+            Logger.info(LOG_TAG, "Upload with ID " + params.id + " is waiting for "
+                    + (params.isUnmeteredNetworkOnly() ? "an unmetered" : "a") + " network");
+            waitingForNetwork = true;
+            broadcastWaitingForNetwork(true);
+        }
+
+        service.getRetryScheduler().scheduleOnNetworkChange(this);
+
+        // cancelled while it was being scheduled
         if (!shouldContinue) {
-            broadcastCancelled();
+            service.getRetryScheduler().wakeUp(this);
+        }
+    }
+
+    /**
+     * Broadcasts a change of the waiting for network status. Delegates receive it as a
+     * progress update, with {@link UploadInfo#isWaitingForNetwork()} telling the status.
+     * @param waitingForNetwork true if the upload is waiting for network
+     */
+    private void broadcastWaitingForNetwork(boolean waitingForNetwork) {
+        final UploadInfo uploadInfo = new UploadInfo(params.id, startTime, uploadedBytes,
+                                                     totalBytes, Math.max(0, attempts - 1),
+                                                     successfullyUploadedFiles,
+                                                     pathStringListFrom(params.files));
+        uploadInfo.setWaitingForNetwork(waitingForNetwork);
+
+        BroadcastData data = new BroadcastData()
+                .setStatus(waitingForNetwork ? BroadcastData.Status.WAITING_FOR_NETWORK
+                                             : BroadcastData.Status.IN_PROGRESS)
+                .setUploadInfo(uploadInfo);
+
+        final UploadStatusDelegate delegate = UploadService.getUploadStatusDelegate(params.id);
+        if (delegate != null) {
+            mainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    delegate.onProgress(service, uploadInfo);
+                }
+            });
+        } else {
+            sendEvent(data);
         }
     }
 
@@ -218,37 +403,86 @@ public abstract class UploadTask implements Runnable {
     protected final void broadcastProgress(final long uploadedBytes, final long totalBytes) {
 
         long currentTime = System.currentTimeMillis();
-        if (uploadedBytes < totalBytes && currentTime < lastProgressNotificationTime + UploadService.PROGRESS_REPORT_INTERVAL) {
+
+        // checked here, so the store is not looked up at every chunk written
+        if (currentTime >= lastCheckpointTime + UploadTaskStore.CHECKPOINT_INTERVAL) {
+            lastCheckpointTime = currentTime;
+            service.saveCheckpoint(params.id, attempts, uploadedBytes, false);
+        }
+
+        if (!params.getProgressPolicy().shouldReport(lastProgressNotificationTime,
+                lastProgressUploadedBytes, currentTime, uploadedBytes, totalBytes)) {
             return;
         }
 
         setLastProgressNotificationTime(currentTime);
+        lastProgressUploadedBytes = uploadedBytes;
 
-        Logger.debug(LOG_TAG, "Broadcasting upload progress for " + params.id
-                              + ": " + uploadedBytes + " bytes of " + totalBytes);
-
-        final UploadInfo uploadInfo = new UploadInfo(params.id, startTime, uploadedBytes,
-                                                     totalBytes, (attempts - 1),
-                                                     successfullyUploadedFiles,
-                                                     pathStringListFrom(params.files));
+        if (Logger.isDebugEnabled()) {
+            Logger.debug(LOG_TAG, "Broadcasting upload progress for " + params.id
+                                  + ": " + uploadedBytes + " bytes of " + totalBytes);
+        }
 
-        BroadcastData data = new BroadcastData()
-                .setStatus(BroadcastData.Status.IN_PROGRESS)
-                .setUploadInfo(uploadInfo);
+        // the full upload information is built only for the consumers which need it
+        UploadInfo uploadInfo = null;
 
         final UploadStatusDelegate delegate = UploadService.getUploadStatusDelegate(params.id);
-        if (delegate != null) {
+        if (delegate instanceof UploadProgressDelegate) {
+            progressDelegate = (UploadProgressDelegate) delegate;
+            progressUploadedBytes = uploadedBytes;
+            progressTotalBytes = totalBytes;
+            progressTimestamp = currentTime;
+
+            if (progressPosted.compareAndSet(false, true)) {
+                mainThreadHandler.post(progressRunnable);
+            }
+
+        } else if (delegate != null) {
+            final UploadInfo delegateUploadInfo = createProgressInfo(uploadedBytes, totalBytes);
+            uploadInfo = delegateUploadInfo;
+
             mainThreadHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    delegate.onProgress(service, uploadInfo);
+                    delegate.onProgress(service, delegateUploadInfo);
                 }
             });
-        } else {
+
+        } else if (UploadService.SEND_BROADCASTS || UploadEventBus.hasSubscribers(params.id)) {
+            uploadInfo = createProgressInfo(uploadedBytes, totalBytes);
+
+            BroadcastData data = new BroadcastData()
+                    .setStatus(BroadcastData.Status.IN_PROGRESS)
+                    .setUploadInfo(uploadInfo);
+
+            sendEvent(data);
+        }
+
+        if (isProgressNotificationEnabled()) {
+            updateNotificationProgress(uploadInfo, uploadedBytes, totalBytes, currentTime);
+        }
+    }
+
+    /**
+     * Sends an event of an upload which has no delegate to the {@link UploadEventBus}
+     * subscribers, and in broadcast if {@link UploadService#SEND_BROADCASTS} is enabled.
+     * @param data event
+     */
+    private void sendEvent(BroadcastData data) {
+        UploadEventBus.post(service, data);
+
+        if (UploadService.SEND_BROADCASTS) {
             service.sendBroadcast(data.getIntent());
         }
+    }
+
+    private UploadInfo createProgressInfo(long uploadedBytes, long totalBytes) {
+        return new UploadInfo(params.id, startTime, uploadedBytes, totalBytes, (attempts - 1),
+                              successfullyUploadedFiles, pathStringListFrom(params.files));
+    }
 
-        updateNotificationProgress(uploadInfo);
+    private boolean isProgressNotificationEnabled() {
+        return params.notificationConfig != null && params.notificationConfig.getProgress().message != null;
     }
 
     /**
@@ -260,8 +494,20 @@ public abstract class UploadTask implements Runnable {
      * @param response response got from the server
      */
     protected final void broadcastCompleted(final ServerResponse response) {
+        broadcastCompleted(response, response.getHttpCode() >= 200 && response.getHttpCode() < 400);
+    }
 
-        final boolean successfulUpload = response.getHttpCode() >= 200 && response.getHttpCode() < 400;
+    /**
+     * Broadcasts a completion status update and informs the {@link UploadService} that the task
+     * executes successfully.
+     * Call this when the task has completed the upload request and has received the response
+     * from the server, if the task decides itself if the response is successful
+     * (e.g. with a {@link RetryPolicy}).
+     *
+     * @param response response got from the server
+     * @param successfulUpload true to broadcast the completion, false to broadcast an error
+     */
+    protected final void broadcastCompleted(final ServerResponse response, final boolean successfulUpload) {
 
         if (successfulUpload) {
             onSuccessfulUpload();
@@ -280,6 +526,7 @@ public abstract class UploadTask implements Runnable {
                                                      totalBytes, (attempts - 1),
                                                      successfullyUploadedFiles,
                                                      pathStringListFrom(params.files));
+        uploadInfo.setDigest(getDigest());
 
         final UploadNotificationConfig notificationConfig = params.notificationConfig;
 
@@ -310,7 +557,7 @@ public abstract class UploadTask implements Runnable {
                     .setUploadInfo(uploadInfo)
                     .setServerResponse(response);
 
-            service.sendBroadcast(data.getIntent());
+            sendEvent(data);
         }
 
         service.taskCompleted(params.id);
@@ -351,7 +598,7 @@ public abstract class UploadTask implements Runnable {
                 }
             });
         } else {
-            service.sendBroadcast(data.getIntent());
+            sendEvent(data);
         }
 
         service.taskCompleted(params.id);
@@ -433,7 +680,7 @@ public abstract class UploadTask implements Runnable {
                 }
             });
         } else {
-            service.sendBroadcast(data.getIntent());
+            sendEvent(data);
         }
 
         service.taskCompleted(params.id);
@@ -450,54 +697,82 @@ public abstract class UploadTask implements Runnable {
         UploadNotificationStatusConfig statusConfig = params.notificationConfig.getProgress();
         notificationCreationTimeMillis = System.currentTimeMillis();
 
-        NotificationCompat.Builder notification = new NotificationCompat.Builder(service, params.notificationConfig.getNotificationChannelId())
+        lastNotificationTitle = Placeholders.replace(statusConfig.title, uploadInfo);
+        lastNotificationText = Placeholders.replace(statusConfig.message, uploadInfo);
+        lastNotificationProgress = 0;
+        lastNotificationUpdateTime = 0;
+
+        progressNotification = new NotificationCompat.Builder(service, params.notificationConfig.getNotificationChannelId())
                 .setWhen(notificationCreationTimeMillis)
-                .setContentTitle(Placeholders.replace(statusConfig.title, uploadInfo))
-                .setContentText(Placeholders.replace(statusConfig.message, uploadInfo))
+                .setContentTitle(lastNotificationTitle)
+                .setContentText(lastNotificationText)
                 .setContentIntent(statusConfig.getClickIntent(service))
                 .setSmallIcon(statusConfig.iconResourceID)
                 .setLargeIcon(statusConfig.largeIcon)
                 .setColor(statusConfig.iconColorResourceID)
                 .setGroup(UploadService.NAMESPACE)
                 .setProgress(100, 0, true)
-                .setOngoing(true);
-
-        statusConfig.addActionsToNotificationBuilder(notification);
+                .setOngoing(true)
+                .setOnlyAlertOnce(true);
 
-        Notification builtNotification = notification.build();
+        statusConfig.addActionsToNotificationBuilder(progressNotification);
 
-        if (service.holdForegroundNotification(params.id, builtNotification)) {
-            notificationManager.cancel(notificationId);
-        } else {
-            notificationManager.notify(notificationId, builtNotification);
-        }
+        postProgressNotification();
     }
 
     /**
      * Informs the {@link UploadService} that the task has made some progress. You should call this
      * method from your task whenever you have successfully transferred some bytes to the server.
-     * @param uploadInfo upload information and statistics
+     * The notification is updated at most every {@link UploadService#NOTIFICATION_UPDATE_INTERVAL}
+     * milliseconds, and only if its text or progress has changed.
+     * @param uploadInfo upload information and statistics, or null to create it only if needed
+     * @param uploadedBytes bytes uploaded so far
+     * @param totalBytes total bytes to upload
+     * @param currentTime time of the update, in milliseconds
      */
-    private void updateNotificationProgress(UploadInfo uploadInfo) {
-        if (params.notificationConfig == null || params.notificationConfig.getProgress().message == null) return;
+    private void updateNotificationProgress(UploadInfo uploadInfo, long uploadedBytes,
+                                            long totalBytes, long currentTime) {
+        if (!isProgressNotificationEnabled() || progressNotification == null) return;
+
+        boolean finished = uploadedBytes >= totalBytes;
+        if (!finished && currentTime < lastNotificationUpdateTime + UploadService.NOTIFICATION_UPDATE_INTERVAL)
+            return;
+
+        if (uploadInfo == null) {
+            uploadInfo = createProgressInfo(uploadedBytes, totalBytes);
+        }
 
         UploadNotificationStatusConfig statusConfig = params.notificationConfig.getProgress();
+        String title = Placeholders.replace(statusConfig.title, uploadInfo);
+        String text = Placeholders.replace(statusConfig.message, uploadInfo);
+        int progress = uploadInfo.getProgressPercent();
 
-        NotificationCompat.Builder notification = new NotificationCompat.Builder(service, params.notificationConfig.getNotificationChannelId())
-                .setWhen(notificationCreationTimeMillis)
-                .setContentTitle(Placeholders.replace(statusConfig.title, uploadInfo))
-                .setContentText(Placeholders.replace(statusConfig.message, uploadInfo))
-                .setContentIntent(statusConfig.getClickIntent(service))
-                .setSmallIcon(statusConfig.iconResourceID)
-                .setLargeIcon(statusConfig.largeIcon)
-                .setColor(statusConfig.iconColorResourceID)
-                .setGroup(UploadService.NAMESPACE)
-                .setProgress((int)uploadInfo.getTotalBytes(), (int)uploadInfo.getUploadedBytes(), false)
-                .setOngoing(true);
+        if (lastNotificationUpdateTime > 0 && progress == lastNotificationProgress
+                && TextUtils.equals(title, lastNotificationTitle)
+                && TextUtils.equals(text, lastNotificationText)) {
+            return;
+        }
+
+        lastNotificationUpdateTime = currentTime;
+        lastNotificationProgress = progress;
+
+        if (!TextUtils.equals(title, lastNotificationTitle)) {
+            lastNotificationTitle = title;
+            progressNotification.setContentTitle(title);
+        }
+
+        if (!TextUtils.equals(text, lastNotificationText)) {
+            lastNotificationText = text;
+            progressNotification.setContentText(text);
+        }
+
+        progressNotification.setProgress(100, progress, false);
 
-        statusConfig.addActionsToNotificationBuilder(notification);
+        postProgressNotification();
+    }
 
-        Notification builtNotification = notification.build();
+    private void postProgressNotification() {
+        Notification builtNotification = progressNotification.build();
 
         if (service.holdForegroundNotification(params.id, builtNotification)) {
             notificationManager.cancel(notificationId);
@@ -586,6 +861,11 @@ public abstract class UploadTask implements Runnable {
 
     public final void cancel() {
         this.shouldContinue = false;
+
+        // a waiting task is run right away, to broadcast the cancellation
+        if (service != null) {
+            service.getRetryScheduler().wakeUp(this);
+        }
     }
 
 }
@@ -16,9 +16,17 @@ import java.util.ArrayList;
  */
 public final class UploadTaskParameters implements Parcelable {
 
+    public static final int PRIORITY_LOW = -10;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 10;
+
     public String id;
     public String serverUrl;
     private int maxRetries = 0;
+    private int priority = PRIORITY_NORMAL;
+    private boolean unmeteredNetworkOnly = false;
+    private ProgressPolicy progressPolicy = new ProgressPolicy();
+    private boolean persistent = true;
     public boolean autoDeleteSuccessfullyUploadedFiles = false;
     public UploadNotificationConfig notificationConfig;
     public ArrayList<UploadFile> files = new ArrayList<>();
@@ -50,6 +58,10 @@ public final class UploadTaskParameters implements Parcelable {
         parcel.writeByte((byte) (autoDeleteSuccessfullyUploadedFiles ? 1 : 0));
         parcel.writeParcelable(notificationConfig, 0);
         parcel.writeList(files);
+        parcel.writeInt(priority);
+        parcel.writeByte((byte) (unmeteredNetworkOnly ? 1 : 0));
+        parcel.writeParcelable(progressPolicy, 0);
+        parcel.writeByte((byte) (persistent ? 1 : 0));
     }
 
     private UploadTaskParameters(Parcel in) {
@@ -59,6 +71,10 @@ public final class UploadTaskParameters implements Parcelable {
         autoDeleteSuccessfullyUploadedFiles = in.readByte() == 1;
         notificationConfig = in.readParcelable(UploadNotificationConfig.class.getClassLoader());
         in.readList(files, UploadFile.class.getClassLoader());
+        priority = in.readInt();
+        unmeteredNetworkOnly = in.readByte() == 1;
+        progressPolicy = in.readParcelable(ProgressPolicy.class.getClassLoader());
+        persistent = in.readByte() == 1;
     }
 
     @Override
@@ -79,4 +95,40 @@ public final class UploadTaskParameters implements Parcelable {
         return this;
     }
 
+    public int getPriority() {
+        return priority;
+    }
+
+    public UploadTaskParameters setPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public boolean isUnmeteredNetworkOnly() {
+        return unmeteredNetworkOnly;
+    }
+
+    public UploadTaskParameters setUnmeteredNetworkOnly(boolean unmeteredNetworkOnly) {
+        this.unmeteredNetworkOnly = unmeteredNetworkOnly;
+        return this;
+    }
+
+    public ProgressPolicy getProgressPolicy() {
+        return progressPolicy;
+    }
+
+    public UploadTaskParameters setProgressPolicy(ProgressPolicy progressPolicy) {
+        this.progressPolicy = progressPolicy != null ? progressPolicy : new ProgressPolicy();
+        return this;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public UploadTaskParameters setPersistent(boolean persistent) {
+        this.persistent = persistent;
+        return this;
+    }
+
 }
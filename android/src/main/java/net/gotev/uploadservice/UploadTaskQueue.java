@@ -0,0 +1,347 @@
+package net.gotev.uploadservice;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of the upload tasks waiting for a thread of the upload pool.
+ * The task with the highest priority (see {@link UploadRequest#setPriority(int)}) is run first,
+ * and tasks with the same priority are run in submission order. To not starve low priority tasks
+ * under a steady flow of higher priority ones, the priority of a waiting task is raised by one
+ * every {@link UploadService#PRIORITY_AGING_INTERVAL} milliseconds, up to one less than
+ * {@link UploadTaskParameters#PRIORITY_HIGH}, so a new high priority task is still run before
+ * any backlog of aged ones.
+ * Tasks to a host which already has as many running uploads as its limit (see
+ * {@link UploadService#setMaxUploadsPerHost(String, int)}) are left in the queue, while the free
+ * threads run the tasks to other hosts. {@link #onTaskFinished(Runnable)} must be called when
+ * a task taken from the queue has finished running. No task is taken while the number of running
+ * tasks is at the concurrency limit set by the {@link ConcurrencyController}.
+ * The queue is expected to hold a few tens of tasks at most, so it's a plain list scanned on
+ * every take.
+ */
+final class UploadTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final class Entry {
+        final Runnable task;
+        final int priority;
+        final String host;
+        final long enqueuedAt;
+
+        Entry(Runnable task, int priority, String host, long enqueuedAt) {
+            this.task = task;
+            this.priority = priority;
+            this.host = host;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // signalled when a task is added or a host has a free slot
+    private final Condition available = lock.newCondition();
+    // in submission order
+    private final List<Entry> entries = new ArrayList<>();
+    // one entry per execution, so a task which is run again before its previous execution has
+    // been reported as finished is still counted correctly
+    private final List<Entry> runningTasks = new ArrayList<>();
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private int concurrencyLimit = Integer.MAX_VALUE;
+
+    private static int priorityOf(Runnable task) {
+        if (task instanceof UploadTask) {
+            UploadTask uploadTask = (UploadTask) task;
+            if (uploadTask.params != null)
+                return uploadTask.params.getPriority();
+        }
+
+        return UploadTaskParameters.PRIORITY_NORMAL;
+    }
+
+    private static String hostOf(Runnable task) {
+        if (task instanceof UploadTask) {
+            UploadTask uploadTask = (UploadTask) task;
+            if (uploadTask.params != null && uploadTask.params.serverUrl != null) {
+                String host = Uri.parse(uploadTask.params.serverUrl).getHost();
+                if (host != null)
+                    return host.toLowerCase(Locale.US);
+            }
+        }
+
+        return "";
+    }
+
+    /**
+     * Called when a task taken from this queue has finished running, to free its host slot.
+     * @param task the finished task
+     */
+    void onTaskFinished(Runnable task) {
+        lock.lock();
+        try {
+            String host = null;
+            for (Iterator<Entry> iterator = runningTasks.iterator(); iterator.hasNext(); ) {
+                Entry entry = iterator.next();
+                if (entry.task == task) {
+                    host = entry.host;
+                    iterator.remove();
+                    break;
+                }
+            }
+
+            if (host == null)
+                return;
+
+            Integer running = runningPerHost.get(host);
+            if (running == null || running <= 1) {
+                runningPerHost.remove(host);
+            } else {
+                runningPerHost.put(host, running - 1);
+            }
+
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the maximum number of tasks taken from this queue which can run at the same time.
+     * @param limit maximum number of running tasks
+     */
+    void setConcurrencyLimit(int limit) {
+        lock.lock();
+        try {
+            concurrencyLimit = limit;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if there are tasks waiting because the concurrency limit has been reached.
+     * @return true if the running tasks are at the limit and there are tasks in the queue
+     */
+    boolean isSaturated() {
+        lock.lock();
+        try {
+            return runningTasks.size() >= concurrencyLimit && !entries.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isHostSaturated(String host) {
+        Integer running = runningPerHost.get(host);
+        return running != null && running >= UploadService.getMaxUploadsPerHost(host);
+    }
+
+    /**
+     * Gets the index of the entry to run next, or -1 if there are no entries or, when
+     * respectLimits is true, if the concurrency limit has been reached or all the entries are for
+     * saturated hosts. Must be called with the lock held.
+     */
+    private int indexOfNext(boolean respectLimits) {
+        if (respectLimits && runningTasks.size() >= concurrencyLimit)
+            return -1;
+
+        long now = SystemClock.elapsedRealtime();
+        long agingInterval = Math.max(1, UploadService.PRIORITY_AGING_INTERVAL);
+        int next = -1;
+        long nextPriority = Long.MIN_VALUE;
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (respectLimits && isHostSaturated(entry.host))
+                continue;
+
+            long maxBoost = Math.max(0, UploadTaskParameters.PRIORITY_HIGH - entry.priority - 1);
+            long priority = entry.priority
+                    + Math.min(maxBoost, (now - entry.enqueuedAt) / agingInterval);
+
+            // entries are in submission order, so on equal priority the first one wins
+            if (priority > nextPriority) {
+                next = i;
+                nextPriority = priority;
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * Removes the next task which can run and marks it as running. Must be called with the lock
+     * held, and the entry must have been obtained with {@link #indexOfNext(boolean)}.
+     */
+    private Runnable dequeue(int index) {
+        Entry entry = entries.remove(index);
+        runningTasks.add(entry);
+
+        Integer running = runningPerHost.get(entry.host);
+        runningPerHost.put(entry.host, running == null ? 1 : running + 1);
+
+        return entry.task;
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        if (task == null)
+            throw new NullPointerException();
+
+        lock.lock();
+        try {
+            entries.add(new Entry(task, priorityOf(task), hostOf(task), SystemClock.elapsedRealtime()));
+            available.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) {
+        offer(task);
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+        return offer(task);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            int next = indexOfNext(true);
+            return next < 0 ? null : dequeue(next);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            int next;
+            while ((next = indexOfNext(true)) < 0) {
+                available.await();
+            }
+            return dequeue(next);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        lock.lockInterruptibly();
+        try {
+            int next;
+            while ((next = indexOfNext(true)) < 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = available.awaitNanos(nanos);
+            }
+            return dequeue(next);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            int next = indexOfNext(true);
+            return next < 0 ? null : entries.get(next).task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        lock.lock();
+        try {
+            for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().task.equals(task)) {
+                    iterator.remove();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection, int maxElements) {
+        if (collection == this)
+            throw new IllegalArgumentException();
+
+        lock.lock();
+        try {
+            // used when shutting down the pool, so the limits don't apply
+            int drained = 0;
+            while (drained < maxElements && !entries.isEmpty()) {
+                collection.add(entries.remove(indexOfNext(false)).task);
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queued tasks, in submission order.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> snapshot = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                snapshot.add(entry.task);
+            }
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
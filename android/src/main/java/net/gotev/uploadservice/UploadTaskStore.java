@@ -0,0 +1,536 @@
+package net.gotev.uploadservice;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk store of the upload tasks, used to restore the queued and running uploads when the
+ * system kills the process and restarts the service with a null intent.
+ * Each task is saved in a small JSON file with the intent extras needed to create it again and
+ * a checkpoint of its progress. The file is written when the task is submitted, rewritten at most
+ * every {@link #CHECKPOINT_INTERVAL} while uploading, and deleted when the task finishes.
+ * Files are written and deleted in order on a background thread, as each write is synced to
+ * disk, and tasks are submitted on the main thread.
+ * Pending intents, bitmaps and notification actions can't be saved on disk, so the notifications
+ * of restored uploads don't have them. Tasks with other parcelable extras are not saved.
+ */
+final class UploadTaskStore {
+
+    private static final String LOG_TAG = UploadTaskStore.class.getSimpleName();
+    private static final String DIRECTORY = "upload-tasks";
+    private static final String EXTENSION = ".task";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Minimum time between two progress checkpoints of the same task, in milliseconds.
+     */
+    static final long CHECKPOINT_INTERVAL = 5000;
+
+    /**
+     * Extra with the number of attempts made by a restored task before the process was killed.
+     */
+    static final String PARAM_RESTORED_ATTEMPTS = "restoredAttempts";
+
+    /**
+     * Extra with the bytes uploaded by a restored task before the process was killed.
+     */
+    static final String PARAM_RESTORED_UPLOADED_BYTES = "restoredUploadedBytes";
+
+    // single thread shared by all the stores, which stops when there's nothing to write
+    private static final ThreadPoolExecutor writer = new ThreadPoolExecutor(
+            0, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    private final File directory;
+    // saved tasks by upload ID, to rewrite them with a new checkpoint without reading them back
+    private final Map<String, JSONObject> records = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastCheckpoints = new ConcurrentHashMap<>();
+
+    UploadTaskStore(Context context) {
+        directory = new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * Saves the task which is going to be created from the given intent.
+     * @param uploadId ID of the upload
+     * @param intent intent received by the service
+     */
+    void save(String uploadId, Intent intent) {
+        try {
+            JSONObject record = new JSONObject()
+                    .put("namespace", UploadService.NAMESPACE)
+                    .put("savedAt", System.currentTimeMillis())
+                    .put("extras", extrasToJson(intent));
+
+            records.put(uploadId, record);
+            scheduleWrite(uploadId, record, "Unable to save upload with ID " + uploadId
+                    + ", it won't be restored if the process gets killed. ");
+
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Unable to save upload with ID " + uploadId
+                    + ", it won't be restored if the process gets killed. " + exc.getMessage());
+        }
+    }
+
+    /**
+     * Saves the progress of a task, if the last checkpoint is older than CHECKPOINT_INTERVAL.
+     * @param uploadId ID of the upload
+     * @param attempts upload attempts made so far
+     * @param uploadedBytes bytes uploaded in the current attempt
+     * @param force true to save the checkpoint regardless of the last one
+     */
+    void checkpoint(String uploadId, int attempts, long uploadedBytes, boolean force) {
+        JSONObject record = records.get(uploadId);
+        if (record == null)
+            return;
+
+        long now = SystemClock.elapsedRealtime();
+        Long lastCheckpoint = lastCheckpoints.get(uploadId);
+        if (!force && lastCheckpoint != null && now - lastCheckpoint < CHECKPOINT_INTERVAL)
+            return;
+
+        lastCheckpoints.put(uploadId, now);
+
+        try {
+            synchronized (record) {
+                // the task may have finished and been removed in the meantime
+                if (records.get(uploadId) != record)
+                    return;
+
+                record.put("attempts", attempts);
+                record.put("uploadedBytes", uploadedBytes);
+            }
+            scheduleWrite(uploadId, record, "Unable to save the progress of upload with ID "
+                    + uploadId + ". ");
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Unable to save the progress of upload with ID " + uploadId
+                    + ". " + exc.getMessage());
+        }
+    }
+
+    /**
+     * Changes a string extra of a saved task, so that the task gets it when it's restored.
+     * Used by the tasks to save state which is needed to resume them, e.g. the URL of an upload
+     * session.
+     * @param uploadId ID of the upload
+     * @param key extra name
+     * @param value extra value, or null to remove the extra
+     */
+    void putExtra(String uploadId, String key, String value) {
+        JSONObject record = records.get(uploadId);
+        if (record == null)
+            return;
+
+        try {
+            synchronized (record) {
+                if (records.get(uploadId) != record)
+                    return;
+
+                JSONObject extras = record.getJSONObject("extras");
+                if (value == null) {
+                    extras.remove(key);
+                } else {
+                    extras.put(key, new JSONObject().put("type", "String").put("value", value));
+                }
+            }
+            scheduleWrite(uploadId, record, "Unable to save " + key + " of upload with ID "
+                    + uploadId + ". ");
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Unable to save " + key + " of upload with ID " + uploadId
+                    + ". " + exc.getMessage());
+        }
+    }
+
+    /**
+     * Deletes a finished task from the store.
+     * @param uploadId ID of the upload
+     */
+    void remove(final String uploadId) {
+        records.remove(uploadId);
+        lastCheckpoints.remove(uploadId);
+
+        // queued after the pending writes of the task, so they can't create the file again
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                delete(uploadId);
+            }
+        });
+    }
+
+    /**
+     * Writes a task on the background thread, unless it has been removed in the meantime.
+     */
+    private void scheduleWrite(final String uploadId, final JSONObject record, final String errorMessage) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String content;
+                    synchronized (record) {
+                        if (records.get(uploadId) != record)
+                            return;
+
+                        content = record.toString();
+                    }
+                    write(uploadId, content);
+                } catch (IOException exc) {
+                    Logger.error(LOG_TAG, errorMessage + exc.getMessage());
+                }
+            }
+        });
+    }
+
+    private void delete(String uploadId) {
+        try {
+            File file = fileOf(uploadId);
+            if (file.exists() && !file.delete()) {
+                Logger.error(LOG_TAG, "Unable to delete " + file.getAbsolutePath());
+            }
+        } catch (IOException exc) {
+            Logger.error(LOG_TAG, "Unable to delete upload with ID " + uploadId, exc);
+        }
+    }
+
+    /**
+     * Reads all the saved tasks. Files which can't be read are deleted.
+     * The service namespace is restored as well, if it has not been set yet.
+     * @param context context used to create the intents
+     * @return intents to start the saved tasks again, in submission order
+     */
+    List<Intent> restore(Context context) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return new ArrayList<>();
+
+        final List<JSONObject> restored = new ArrayList<>(files.length);
+
+        for (File file : files) {
+            if (!file.getName().endsWith(EXTENSION))
+                continue;
+
+            try {
+                restored.add(read(file));
+            } catch (Exception exc) {
+                Logger.error(LOG_TAG, "Discarding unreadable upload task " + file.getName()
+                        + ". " + exc.getMessage());
+                file.delete();
+            }
+        }
+
+        Collections.sort(restored, new Comparator<JSONObject>() {
+            @Override
+            public int compare(JSONObject first, JSONObject second) {
+                long firstSavedAt = first.optLong("savedAt");
+                long secondSavedAt = second.optLong("savedAt");
+                return firstSavedAt < secondSavedAt ? -1 : (firstSavedAt == secondSavedAt ? 0 : 1);
+            }
+        });
+
+        List<Intent> intents = new ArrayList<>(restored.size());
+
+        for (JSONObject record : restored) {
+            if ("net.gotev".equals(UploadService.NAMESPACE) && record.has("namespace")) {
+                UploadService.NAMESPACE = record.optString("namespace");
+            }
+
+            try {
+                Intent intent = new Intent(context, UploadService.class);
+                jsonToExtras(record.getJSONObject("extras"), intent);
+                intent.putExtra(PARAM_RESTORED_ATTEMPTS, record.optInt("attempts", 0));
+                intent.putExtra(PARAM_RESTORED_UPLOADED_BYTES, record.optLong("uploadedBytes", 0));
+                intent.setAction(UploadService.getActionUpload());
+                intents.add(intent);
+            } catch (Exception exc) {
+                Logger.error(LOG_TAG, "Unable to restore upload task. " + exc.getMessage());
+            }
+        }
+
+        return intents;
+    }
+
+    private File fileOf(String uploadId) throws UnsupportedEncodingException {
+        // upload IDs may be provided by the app, so they are encoded to be safe file names
+        return new File(directory, URLEncoder.encode(uploadId, "UTF-8") + EXTENSION);
+    }
+
+    private void write(String uploadId, String content) throws IOException {
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Unable to create " + directory.getAbsolutePath());
+
+        File file = fileOf(uploadId);
+        File tempFile = new File(directory, file.getName() + ".tmp");
+
+        // written aside and renamed, so that a kill while writing never leaves a truncated file
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            outputStream.write(content.getBytes(UTF8));
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        if (!tempFile.renameTo(file))
+            throw new IOException("Unable to rename " + tempFile.getAbsolutePath());
+    }
+
+    private static JSONObject read(File file) throws IOException, JSONException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) > 0) {
+                content.write(buffer, 0, bytesRead);
+            }
+            return new JSONObject(new String(content.toByteArray(), UTF8));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static JSONObject extrasToJson(Intent intent) throws JSONException {
+        Bundle extras = intent.getExtras();
+        JSONObject json = new JSONObject();
+
+        if (extras == null)
+            return json;
+
+        for (String key : extras.keySet()) {
+            Object value = extras.get(key);
+
+            if (value instanceof UploadTaskParameters) {
+                json.put(key, new JSONObject().put("type", "task")
+                        .put("value", toJson((UploadTaskParameters) value)));
+
+            } else if (value instanceof HttpUploadTaskParameters) {
+                json.put(key, new JSONObject().put("type", "http")
+                        .put("value", toJson((HttpUploadTaskParameters) value)));
+
+            } else if (value instanceof String || value instanceof Boolean
+                    || value instanceof Integer || value instanceof Long) {
+                json.put(key, new JSONObject().put("type", value.getClass().getSimpleName())
+                        .put("value", value));
+
+            } else if (value != null) {
+                throw new JSONException("unsupported extra " + key);
+            }
+        }
+
+        return json;
+    }
+
+    private static void jsonToExtras(JSONObject json, Intent intent) throws JSONException, IOException {
+        for (Iterator<String> keys = json.keys(); keys.hasNext(); ) {
+            String key = keys.next();
+            JSONObject extra = json.getJSONObject(key);
+            String type = extra.getString("type");
+
+            if ("task".equals(type)) {
+                intent.putExtra(key, taskParametersFromJson(extra.getJSONObject("value")));
+            } else if ("http".equals(type)) {
+                intent.putExtra(key, httpParametersFromJson(extra.getJSONObject("value")));
+            } else if ("String".equals(type)) {
+                intent.putExtra(key, extra.getString("value"));
+            } else if ("Boolean".equals(type)) {
+                intent.putExtra(key, extra.getBoolean("value"));
+            } else if ("Integer".equals(type)) {
+                intent.putExtra(key, extra.getInt("value"));
+            } else if ("Long".equals(type)) {
+                intent.putExtra(key, extra.getLong("value"));
+            }
+        }
+    }
+
+    private static JSONObject toJson(UploadTaskParameters params) throws JSONException {
+        JSONArray files = new JSONArray();
+        for (UploadFile file : params.files) {
+            files.put(new JSONObject()
+                    .put("path", file.path)
+                    .put("offset", file.offset)
+                    .put("length", file.rangeLength)
+                    .put("properties", new JSONObject(file.getProperties())));
+        }
+
+        JSONObject json = new JSONObject()
+                .put("id", params.id)
+                .put("serverUrl", params.serverUrl)
+                .put("maxRetries", params.getMaxRetries())
+                .put("priority", params.getPriority())
+                .put("unmeteredNetworkOnly", params.isUnmeteredNetworkOnly())
+                .put("progressPolicy", toJson(params.getProgressPolicy()))
+                .put("autoDelete", params.autoDeleteSuccessfullyUploadedFiles)
+                .put("files", files);
+
+        if (params.notificationConfig != null) {
+            UploadNotificationConfig config = params.notificationConfig;
+            json.put("notification", new JSONObject()
+                    .put("channelId", config.getNotificationChannelId())
+                    .put("ringTone", config.isRingToneEnabled())
+                    .put("progress", toJson(config.getProgress()))
+                    .put("completed", toJson(config.getCompleted()))
+                    .put("error", toJson(config.getError()))
+                    .put("cancelled", toJson(config.getCancelled())));
+        }
+
+        return json;
+    }
+
+    private static UploadTaskParameters taskParametersFromJson(JSONObject json) throws JSONException, IOException {
+        UploadTaskParameters params = new UploadTaskParameters();
+        params.id = json.getString("id");
+        params.serverUrl = json.getString("serverUrl");
+        params.setMaxRetries(json.optInt("maxRetries"));
+        params.setPriority(json.optInt("priority", UploadTaskParameters.PRIORITY_NORMAL));
+        params.setUnmeteredNetworkOnly(json.optBoolean("unmeteredNetworkOnly"));
+
+        JSONObject progressPolicy = json.optJSONObject("progressPolicy");
+        if (progressPolicy != null) {
+            params.setProgressPolicy(new ProgressPolicy()
+                    .setMinInterval(progressPolicy.optLong("minInterval", UploadService.PROGRESS_REPORT_INTERVAL))
+                    .setMinBytes(progressPolicy.optLong("minBytes"))
+                    .setMinPercent(progressPolicy.optInt("minPercent"))
+                    .setTerminalEventsOnly(progressPolicy.optBoolean("terminalEventsOnly")));
+        }
+        params.autoDeleteSuccessfullyUploadedFiles = json.optBoolean("autoDelete");
+
+        JSONArray files = json.getJSONArray("files");
+        for (int i = 0; i < files.length(); i++) {
+            JSONObject jsonFile = files.getJSONObject(i);
+            UploadFile file = new UploadFile(jsonFile.getString("path"),
+                                             jsonFile.optLong("offset", 0),
+                                             jsonFile.optLong("length", -1));
+
+            JSONObject properties = jsonFile.optJSONObject("properties");
+            if (properties != null) {
+                for (Iterator<String> keys = properties.keys(); keys.hasNext(); ) {
+                    String key = keys.next();
+                    file.setProperty(key, properties.getString(key));
+                }
+            }
+
+            params.files.add(file);
+        }
+
+        JSONObject notification = json.optJSONObject("notification");
+        if (notification != null) {
+            UploadNotificationConfig config = new UploadNotificationConfig();
+            if (notification.has("channelId")) {
+                config.setNotificationChannelId(notification.getString("channelId"));
+            }
+            config.setRingToneEnabled(notification.optBoolean("ringTone", true));
+            fromJson(notification.getJSONObject("progress"), config.getProgress());
+            fromJson(notification.getJSONObject("completed"), config.getCompleted());
+            fromJson(notification.getJSONObject("error"), config.getError());
+            fromJson(notification.getJSONObject("cancelled"), config.getCancelled());
+            params.notificationConfig = config;
+        }
+
+        return params;
+    }
+
+    private static JSONObject toJson(ProgressPolicy policy) throws JSONException {
+        return new JSONObject()
+                .put("minInterval", policy.getMinInterval())
+                .put("minBytes", policy.getMinBytes())
+                .put("minPercent", policy.getMinPercent())
+                .put("terminalEventsOnly", policy.isTerminalEventsOnly());
+    }
+
+    private static JSONObject toJson(UploadNotificationStatusConfig config) throws JSONException {
+        JSONObject json = new JSONObject()
+                .put("autoClear", config.autoClear)
+                .put("icon", config.iconResourceID)
+                .put("iconColor", config.iconColorResourceID)
+                .put("clearOnAction", config.clearOnAction);
+
+        if (config.title != null)
+            json.put("title", config.title);
+
+        if (config.message != null)
+            json.put("message", config.message);
+
+        return json;
+    }
+
+    private static void fromJson(JSONObject json, UploadNotificationStatusConfig config) {
+        config.title = json.has("title") ? json.optString("title") : null;
+        config.message = json.has("message") ? json.optString("message") : null;
+        config.autoClear = json.optBoolean("autoClear");
+        config.iconResourceID = json.optInt("icon", config.iconResourceID);
+        config.iconColorResourceID = json.optInt("iconColor", config.iconColorResourceID);
+        config.clearOnAction = json.optBoolean("clearOnAction");
+    }
+
+    private static JSONObject toJson(HttpUploadTaskParameters params) throws JSONException {
+        JSONObject json = new JSONObject()
+                .put("method", params.method)
+                .put("fixedLengthStreamingMode", params.usesFixedLengthStreamingMode)
+                .put("headers", toJson(params.getRequestHeaders()))
+                .put("parameters", toJson(params.getRequestParameters()));
+
+        if (params.customUserAgent != null)
+            json.put("userAgent", params.customUserAgent);
+
+        if (params.digestAlgorithm != null)
+            json.put("digestAlgorithm", params.digestAlgorithm);
+
+        return json;
+    }
+
+    private static HttpUploadTaskParameters httpParametersFromJson(JSONObject json) throws JSONException {
+        HttpUploadTaskParameters params = new HttpUploadTaskParameters();
+        params.method = json.optString("method", "POST");
+        params.usesFixedLengthStreamingMode = json.optBoolean("fixedLengthStreamingMode", true);
+        params.customUserAgent = json.has("userAgent") ? json.getString("userAgent") : null;
+        params.digestAlgorithm = json.has("digestAlgorithm") ? json.getString("digestAlgorithm") : null;
+
+        // headers were already validated when they were added to the request
+        JSONArray headers = json.getJSONArray("headers");
+        for (int i = 0; i < headers.length(); i++) {
+            JSONArray header = headers.getJSONArray(i);
+            params.getRequestHeaders().add(new NameValue(header.getString(0), header.getString(1)));
+        }
+
+        JSONArray parameters = json.getJSONArray("parameters");
+        for (int i = 0; i < parameters.length(); i++) {
+            JSONArray parameter = parameters.getJSONArray(i);
+            params.addParameter(parameter.getString(0), parameter.getString(1));
+        }
+
+        return params;
+    }
+
+    private static JSONArray toJson(List<NameValue> nameValues) {
+        JSONArray json = new JSONArray();
+        for (NameValue nameValue : nameValues) {
+            json.put(new JSONArray().put(nameValue.getName()).put(nameValue.getValue()));
+        }
+        return json;
+    }
+}
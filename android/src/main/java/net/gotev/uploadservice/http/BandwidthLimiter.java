@@ -0,0 +1,113 @@
+package net.gotev.uploadservice.http;
+
+import net.gotev.uploadservice.UploadService;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket which limits the total rate at which the upload tasks write their request bodies.
+ * Every chunk written by {@link BodyWriter} takes its size in tokens from the bucket, which
+ * is refilled at the configured rate. When the bucket is empty, the writer goes in debt and
+ * sleeps until the debt has been paid back, so the writers are served in the order in which they
+ * asked for tokens, and the concurrent uploads get an even share of the bandwidth, chunk
+ * after chunk, without busy waiting.
+ * The rate can be changed at any time, also while uploading.
+ */
+public final class BandwidthLimiter {
+
+    /**
+     * Maximum burst, expressed as the bytes which can be sent in this time at the current rate,
+     * in milliseconds.
+     */
+    private static final long BURST_DURATION = 250;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition rateChanged = lock.newCondition();
+
+    private long bytesPerSecond = 0;
+    private double tokens = 0;
+    private long lastRefillTime = System.nanoTime();
+
+    // incremented on every rate change, to wake up the writers waiting with the old rate
+    private int generation = 0;
+
+    /**
+     * Sets the maximum rate.
+     * @param bytesPerSecond maximum total bytes per second, or a value {@code <= 0} for no limit
+     */
+    public void setRate(long bytesPerSecond) {
+        lock.lock();
+        try {
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+            tokens = 0;
+            lastRefillTime = System.nanoTime();
+            generation++;
+            rateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the maximum rate.
+     * @return maximum total bytes per second, or 0 if there's no limit
+     */
+    public long getRate() {
+        lock.lock();
+        try {
+            return bytesPerSecond;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the tokens needed to write the given number of bytes, blocking until the bytes can
+     * be written without exceeding the rate.
+     * @param bytes number of bytes which are going to be written
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        lock.lock();
+        try {
+            if (bytesPerSecond <= 0)
+                return;
+
+            refill();
+            tokens -= bytes;
+
+            if (tokens >= 0)
+                return;
+
+            long waitNanos = (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+            int startGeneration = generation;
+
+            while (waitNanos > 0 && startGeneration == generation) {
+                waitNanos = rateChanged.awaitNanos(waitNanos);
+            }
+
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the tokens accumulated since the last refill. Must be called with the lock held.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        double maxTokens = Math.max((double) bytesPerSecond * BURST_DURATION / 1000,
+                                    UploadService.BUFFER_SIZE);
+
+        tokens = Math.min(maxTokens, tokens + (double) (now - lastRefillTime) * bytesPerSecond
+                                              / TimeUnit.SECONDS.toNanos(1));
+        lastRefillTime = now;
+    }
+}
@@ -34,6 +34,8 @@ public abstract class BodyWriter {
     /**
      * Writes an input stream to the request body.
      * The stream will be automatically closed after successful write or if an exception is thrown.
+     * The writing is paced by the bandwidth limiter shared by all the uploads
+     * (see {@link UploadService#setMaxUploadRate(long)}).
      * @param stream input stream from which to read
      * @param listener listener which gets notified when bytes are written and which controls if
      *                 the transfer should continue
@@ -45,9 +47,11 @@ public abstract class BodyWriter {
 
         byte[] buffer = new byte[UploadService.BUFFER_SIZE];
         int bytesRead;
+        BandwidthLimiter bandwidthLimiter = UploadService.getBandwidthLimiter();
 
         try {
             while (listener.shouldContinueWriting() && (bytesRead = stream.read(buffer, 0, buffer.length)) > 0) {
+                bandwidthLimiter.acquire(bytesRead);
                 write(buffer, bytesRead);
                 flush();
                 listener.onBytesWritten(bytesRead);
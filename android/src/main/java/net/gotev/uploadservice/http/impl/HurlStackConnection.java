@@ -26,6 +26,7 @@ public class HurlStackConnection implements HttpConnection {
     private static final String LOG_TAG = HurlStackConnection.class.getSimpleName();
 
     private HttpURLConnection mConnection;
+    private boolean mHasBody;
 
     public HurlStackConnection(String method, String url, boolean followRedirects,
                                boolean useCaches, int connectTimeout, int readTimeout)
@@ -40,8 +41,11 @@ public class HurlStackConnection implements HttpConnection {
             mConnection = (HttpURLConnection) urlObj.openConnection();
         }
 
+        // HttpURLConnection turns GET into POST and rejects HEAD when the output is enabled
+        mHasBody = !"GET".equals(method) && !"HEAD".equals(method);
+
         mConnection.setDoInput(true);
-        mConnection.setDoOutput(true);
+        mConnection.setDoOutput(mHasBody);
         mConnection.setConnectTimeout(connectTimeout);
         mConnection.setReadTimeout(readTimeout);
         mConnection.setUseCaches(useCaches);
@@ -60,6 +64,9 @@ public class HurlStackConnection implements HttpConnection {
 
     @Override
     public HttpConnection setTotalBodyBytes(long totalBodyBytes, boolean isFixedLengthStreamingMode) {
+        if (!mHasBody)
+            return this;
+
         if (isFixedLengthStreamingMode) {
             if (android.os.Build.VERSION.SDK_INT >= 19) {
                 mConnection.setFixedLengthStreamingMode(totalBodyBytes);
@@ -141,14 +148,39 @@ public class HurlStackConnection implements HttpConnection {
     @Override
     public ServerResponse getResponse(final RequestBodyDelegate delegate) throws IOException {
 
-        final HurlBodyWriter bodyWriter = new HurlBodyWriter(mConnection.getOutputStream());
-        delegate.onBodyReady(bodyWriter);
-        bodyWriter.flush();
+        if (mHasBody) {
+            writeBody(delegate);
+        }
 
         return new ServerResponse(mConnection.getResponseCode(),
                 getServerResponseBody(), getServerResponseHeaders());
     }
 
+    private void writeBody(final RequestBodyDelegate delegate) throws IOException {
+        try {
+            final HurlBodyWriter bodyWriter = new HurlBodyWriter(mConnection.getOutputStream());
+            delegate.onBodyReady(bodyWriter);
+            bodyWriter.flush();
+
+        } catch (IOException exc) {
+            // the server may have rejected the request before getting the whole body
+            // (e.g. with 413), and closed the connection. If so, that's the outcome of the
+            // request, rather than the write error, which would have the request sent again.
+            int earlyResponseCode;
+            try {
+                earlyResponseCode = mConnection.getResponseCode();
+            } catch (IOException ignored) {
+                throw exc;
+            }
+
+            if (earlyResponseCode <= 0)
+                throw exc;
+
+            Logger.debug(LOG_TAG, "Server responded with HTTP " + earlyResponseCode
+                    + " before the whole body was sent");
+        }
+    }
+
     @Override
     public void close() {
         Logger.debug(getClass().getSimpleName(), "closing connection");
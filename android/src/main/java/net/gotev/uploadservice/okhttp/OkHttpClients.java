@@ -0,0 +1,126 @@
+package net.gotev.uploadservice.okhttp;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Registry of the OkHttp clients used for the different kinds of requests made during an upload.
+ * All the clients share the same connection pool and dispatcher, so that a request reuses the
+ * warm connections opened by the previous ones to the same host, whatever their purpose,
+ * without paying a new TLS handshake.
+ * The tunables are read when the shared pool and dispatcher are created, which happens the first
+ * time a client is requested, so set them before that (e.g. in your Application onCreate).
+ */
+public final class OkHttpClients {
+
+    public enum Purpose {
+        /**
+         * Requests to get the presigned URL of the parts of a multipart upload.
+         */
+        PRESIGN,
+
+        /**
+         * Upload requests made by {@link OkHttpStack}.
+         */
+        UPLOAD,
+
+        /**
+         * Requests to complete a multipart upload.
+         */
+        COMPLETION
+    }
+
+    /**
+     * Maximum number of idle connections kept in the shared pool.
+     */
+    public static int MAX_IDLE_CONNECTIONS = 5;
+
+    /**
+     * How long an idle connection is kept in the shared pool, in milliseconds.
+     */
+    public static long KEEP_ALIVE_DURATION = 5 * 60 * 1000;
+
+    /**
+     * Maximum number of concurrent asynchronous requests of the shared dispatcher.
+     * Synchronous requests, like the ones made by the upload tasks, are not limited.
+     */
+    public static int MAX_REQUESTS = 64;
+
+    /**
+     * Maximum number of concurrent asynchronous requests to the same host of the shared dispatcher.
+     */
+    public static int MAX_REQUESTS_PER_HOST = 5;
+
+    /**
+     * Connect timeout of all the clients, in milliseconds.
+     */
+    public static int CONNECT_TIMEOUT = 15 * 1000;
+
+    /**
+     * Read and write timeout of the upload and presign requests, in milliseconds.
+     */
+    public static int READ_WRITE_TIMEOUT = 30 * 1000;
+
+    /**
+     * Read timeout of the completion requests, in milliseconds. S3 may take a while to assemble
+     * the parts of a big object.
+     */
+    public static int COMPLETION_TIMEOUT = 2 * 60 * 1000;
+
+    private static final Map<Purpose, OkHttpClient> clients = new EnumMap<>(Purpose.class);
+    private static ConnectionPool connectionPool;
+    private static Dispatcher dispatcher;
+
+    private OkHttpClients() { }
+
+    /**
+     * Gets the client to use for the given purpose, creating it the first time.
+     * @param purpose kind of requests which are going to be made with the client
+     * @return shared client instance
+     */
+    public static synchronized OkHttpClient get(Purpose purpose) {
+        OkHttpClient client = clients.get(purpose);
+
+        if (client == null) {
+            client = newBuilder(purpose).build();
+            clients.put(purpose, client);
+        }
+
+        return client;
+    }
+
+    private static OkHttpClient.Builder newBuilder(Purpose purpose) {
+        if (connectionPool == null) {
+            connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION,
+                                                TimeUnit.MILLISECONDS);
+        }
+
+        if (dispatcher == null) {
+            dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(MAX_REQUESTS);
+            dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        }
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .connectTimeout(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .writeTimeout(READ_WRITE_TIMEOUT, TimeUnit.MILLISECONDS)
+                .readTimeout(purpose == Purpose.COMPLETION ? COMPLETION_TIMEOUT : READ_WRITE_TIMEOUT,
+                             TimeUnit.MILLISECONDS);
+
+        if (purpose == Purpose.UPLOAD) {
+            builder.followRedirects(true)
+                    .followSslRedirects(true)
+                    .retryOnConnectionFailure(true)
+                    .cache(null);
+        }
+
+        return builder;
+    }
+}
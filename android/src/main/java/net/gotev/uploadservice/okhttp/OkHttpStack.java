@@ -4,7 +4,6 @@ import net.gotev.uploadservice.http.HttpConnection;
 import net.gotev.uploadservice.http.HttpStack;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
 
@@ -16,16 +15,11 @@ public class OkHttpStack implements HttpStack {
 
     private OkHttpClient mClient;
 
+    /**
+     * Creates the stack with the shared upload client from {@link OkHttpClients}.
+     */
     public OkHttpStack() {
-        mClient = new OkHttpClient.Builder()
-                .followRedirects(true)
-                .followSslRedirects(true)
-                .retryOnConnectionFailure(true)
-                .connectTimeout(15, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .cache(null)
-                .build();
+        mClient = OkHttpClients.get(OkHttpClients.Purpose.UPLOAD);
     }
 
     public OkHttpStack(OkHttpClient client) {
@@ -21,6 +21,12 @@ import okio.BufferedSink;
 
 /**
  * {@link HttpConnection} implementation using OkHttpClient.
+ * Unlike {@link net.gotev.uploadservice.http.impl.HurlStackConnection}, a response sent by the
+ * server before getting the whole body (e.g. 413) can't be read once writing the body has
+ * failed, as OkHttp doesn't allow it, so the write error is thrown and handled by the
+ * {@link net.gotev.uploadservice.RetryPolicy}. To get such responses, add the
+ * {@code Expect: 100-continue} header to the request: OkHttp then waits for the server to accept
+ * the request before sending the body, and returns its response if it's rejected.
  * @author Aleksandar Gotev
  */
 public class OkHttpStackConnection implements HttpConnection {
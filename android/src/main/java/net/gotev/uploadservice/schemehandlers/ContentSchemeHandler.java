@@ -3,6 +3,7 @@ package net.gotev.uploadservice.schemehandlers;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.provider.OpenableColumns;
 
 import net.gotev.uploadservice.ContentType;
@@ -36,6 +37,16 @@ class ContentSchemeHandler implements SchemeHandler {
         return context.getContentResolver().openInputStream(uri);
     }
 
+    @Override
+    public InputStream getInputStream(Context context, long offset, long length) throws FileNotFoundException {
+        ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+        if (descriptor == null)
+            throw new FileNotFoundException("Unable to open file descriptor for " + uri);
+
+        return new FileRangeInputStream(new ParcelFileDescriptor.AutoCloseInputStream(descriptor),
+                                        offset, length);
+    }
+
     @Override
     public String getContentType(Context context) {
         String type = context.getContentResolver().getType(uri);
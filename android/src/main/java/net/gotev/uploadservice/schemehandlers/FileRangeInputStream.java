@@ -0,0 +1,83 @@
+package net.gotev.uploadservice.schemehandlers;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Input stream which reads a range of bytes of a file using positioned reads on its
+ * {@link FileChannel}, so that parts of a big file can be uploaded without copying them.
+ */
+class FileRangeInputStream extends InputStream {
+
+    private final FileInputStream stream;
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    private byte[] wrappedArray;
+    private ByteBuffer wrappedBuffer;
+
+    FileRangeInputStream(FileInputStream stream, long offset, long length) {
+        this.stream = stream;
+        this.channel = stream.getChannel();
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (position >= end)
+            return -1;
+
+        if (length == 0)
+            return 0;
+
+        int toRead = (int) Math.min(length, end - position);
+
+        // the upload body writer always reads in the same buffer, so wrap it only once
+        if (wrappedArray != bytes) {
+            wrappedArray = bytes;
+            wrappedBuffer = ByteBuffer.wrap(bytes);
+        }
+
+        wrappedBuffer.limit(offset + toRead).position(offset);
+
+        int bytesRead = channel.read(wrappedBuffer, position);
+        if (bytesRead < 0) {
+            position = end;
+            return -1;
+        }
+
+        position += bytesRead;
+        return bytesRead;
+    }
+
+    @Override
+    public long skip(long count) {
+        if (count <= 0)
+            return 0;
+
+        long skipped = Math.min(count, end - position);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, end - position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
@@ -32,6 +32,11 @@ class FileSchemeHandler implements SchemeHandler {
         return new FileInputStream(file);
     }
 
+    @Override
+    public InputStream getInputStream(Context context, long offset, long length) throws FileNotFoundException {
+        return new FileRangeInputStream(new FileInputStream(file), offset, length);
+    }
+
     @Override
     public String getContentType(Context context) {
         return ContentType.autoDetect(file.getAbsolutePath());
@@ -15,6 +15,7 @@ public interface SchemeHandler {
     void init(String path);
     long getLength(Context context);
     InputStream getInputStream(Context context) throws FileNotFoundException;
+    InputStream getInputStream(Context context, long offset, long length) throws FileNotFoundException;
     String getContentType(Context context);
     String getName(Context context);
 }
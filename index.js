@@ -14,15 +14,40 @@ export type StartUploadArgs = {
   url: string,
   path: string,
   method?: 'PUT' | 'POST',
-  // Optional, because raw is default
-  type?: 'raw' | 'multipart',
+  // Optional, because raw is default.
+  // resumable uploads use the tus 1.0 protocol: url is the creation endpoint of the tus server,
+  // and a failed or killed upload continues from the last byte received. Android only
+  type?: 'raw' | 'multipart' | 'resumable',
   // This option is needed for multipart type
   field?: string,
   customUploadId?: string,
-  // parameters are supported only in multipart type
+  // parameters are supported only in multipart and resumable types.
+  // resumable uploads send them as tus metadata
   parameters?: { [string]: string },
   headers?: Object,
-  notification?: NotificationArgs
+  notification?: NotificationArgs,
+  // when more uploads are waiting than can run at once, higher priority ones start first.
+  // Android only. Default is normal
+  priority?: 'low' | 'normal' | 'high',
+  // upload only on unmetered networks (e.g. Wi-Fi). While there's no suitable network the upload
+  // waits for one without using up its retries. Android only. Default is false
+  unmeteredNetworkOnly?: boolean,
+  // maximum bytes sent with a single request of a resumable upload, for servers which limit
+  // the request size. Android only. Default is 0, the whole file in one request
+  chunkSize?: number,
+  // how often progress events are sent. Android only
+  progressPolicy?: ProgressPolicy,
+}
+
+export type ProgressPolicy = {
+  // minimum time between two progress events, in ms. Default is 166
+  minInterval?: number,
+  // minimum bytes uploaded between two progress events. Default is 0
+  minBytes?: number,
+  // minimum percentage uploaded between two progress events. Default is 0
+  minPercent?: number,
+  // send no progress events at all, only completed, error and cancelled. Default is false
+  terminalEventsOnly?: boolean,
 }
 
 export type StartMultiPartUploadArgs = {
@@ -37,13 +62,43 @@ export type StartMultiPartUploadArgs = {
   parameters?: { [string]: string },
   headers?: Object,
   notification?: NotificationArgs,
+  // priority of the part uploads, see StartUploadArgs
+  priority?: 'low' | 'normal' | 'high',
+  // see StartUploadArgs
+  unmeteredNetworkOnly?: boolean,
   fileName: string,
   getPresignUrl: string,
   accessToken: string,
   s3UploadId: string,
-  beginPart: Number,
-  totalPart: Number,
+  beginPart?: Number,
+  totalPart?: Number,
   partSize: Number,
+  // how many parts to upload at the same time. Default is 1
+  maxConcurrentParts?: Number,
+  // how many presigned URLs to fetch ahead of the uploaded parts. Default is maxConcurrentParts
+  presignPrefetchCount?: Number,
+  // how long before their expiry (in ms) the prefetched URLs are fetched again. Default is 60000
+  presignExpiryMargin?: Number,
+  // send the md5 of every part in a Content-MD5 header. The parts are read twice to compute it
+  // before the upload, otherwise the md5 is computed while uploading and sent in the last
+  // progress event of every part. Default is false
+  contentMd5?: boolean,
+  // size the parts as the upload goes, so that each part takes about targetPartDuration to upload
+  // at the measured throughput, and shrink them when parts need retries. partSize is the size of
+  // the first part, totalPart and beginPart are not used (use resumeMultiPartUpload instead).
+  // The part layout is reported in the parts field of the completed event. Default is false
+  adaptivePartSize?: boolean,
+  // maximum part size in bytes in adaptive mode. Default is 64 MB, the minimum is 5 MB
+  maxPartSize?: Number,
+  // how long uploading a part should take in adaptive mode, in ms. Default is 30000
+  targetPartDuration?: Number,
+  // when set, the upload is completed natively once all the parts have been uploaded, with the
+  // ETags of the parts, and the completed event carries the response to the completion request
+  completeUrl?: string,
+  // 'json' (default) POSTs { videoName, uploadId, parts: [{ PartNumber, ETag }] } to completeUrl
+  // with the accessToken, like getPresignUrl. 's3' POSTs the CompleteMultipartUpload XML to
+  // completeUrl, which must be a presigned CompleteMultipartUpload URL
+  completeType?: 'json' | 's3',
 }
 
 const NativeModule = NativeModules.VydiaRNFileUploader || NativeModules.RNFileUploader // iOS is VydiaRNFileUploader and Android is NativeModules 
@@ -57,6 +112,13 @@ if (NativeModules.VydiaRNFileUploader) {
   NativeModule.addListener(eventPrefix + 'completed')
 }
 
+// Android coalesces the progress events of all the uploads into batches, which are unpacked
+// here, so listeners receive them as separate progress events
+DeviceEventEmitter.addListener(eventPrefix + 'progressBatch', (batch) => {
+  if (!Array.isArray(batch)) return
+  batch.forEach((data) => DeviceEventEmitter.emit(eventPrefix + 'progress', data))
+})
+
 /*
 Gets file information for the path specified.
 Example valid path is:
@@ -98,8 +160,35 @@ It is recommended to add listeners in the .then of this promise.
 */
 export const startUpload = (options: StartUploadArgs): Promise<string> => NativeModule.startUpload(options)
 
+/*
+Starts many uploads at once, with the same options as startUpload. Much cheaper than calling
+startUpload for each file when enqueuing hundreds of files, as the upload service is started once
+for all of them. If any options are invalid, no upload is started. Android only.
+
+Returns a promise with the array of upload IDs, in the same order as the options.
+*/
+export const startUploads = (options: Array<StartUploadArgs>): Promise<Array<string>> => NativeModule.startUploads(options)
+
 export const startMultiPartUpload = (options: StartMultiPartUploadArgs): Promise<string> => NativeModule.startMultiPartUpload(options)
 
+/*
+Resumes a multipart upload which has been interrupted, by the app being killed or by an error,
+uploading only the parts which have not been uploaded yet. Android only.
+
+options must contain a fresh accessToken, and may override any other StartMultiPartUploadArgs
+field the upload has been started with.
+
+Returns a promise with the string ID of the upload.
+*/
+export const resumeMultiPartUpload = (uploadId: string, options: $Shape<StartMultiPartUploadArgs>): Promise<string> => NativeModule.resumeMultiPartUpload(uploadId, options)
+
+/*
+Lists the multipart uploads which can be resumed with resumeMultiPartUpload. Android only.
+
+Returns a promise with an array of { id: string, s3UploadId: string, totalPart: int, uploadedParts: int }
+*/
+export const getResumableMultiPartUploads = (): Promise<Array<Object>> => NativeModule.getResumableMultiPartUploads()
+
 /*
 Cancels active upload by string ID of the upload.
 
@@ -119,11 +208,30 @@ export const cancelUpload = (cancelUploadId: string): Promise<boolean> => {
   return NativeModule.cancelUpload(cancelUploadId);
 }
 
+/*
+Sets the maximum total bandwidth used by all the uploads, in bytes per second, shared evenly by
+the running uploads. It can be changed at any time, e.g. lowered on cellular. 0 removes the limit,
+which is the default. Android only.
+*/
+export const setMaxUploadRate = (bytesPerSecond: number): Promise<boolean> => NativeModule.setMaxUploadRate(bytesPerSecond)
+
+/*
+Sets how often the progress events of all the uploads are sent from native code, in milliseconds.
+Only the latest progress of each upload is sent. Default is 250, 0 sends every progress event
+right away. Android only.
+*/
+export const setProgressBatchInterval = (interval: number): Promise<boolean> => NativeModule.setProgressBatchInterval(interval)
+
 /*
 Listens for the given event on the given upload ID (resolved from startUpload).  
 If you don't supply a value for uploadId, the event will fire for all uploads.
 Events (id is always the upload ID):
   progress - { id: string, progress: int (0-100) }
+    on Android also { waitingForNetwork: boolean }, sent when the upload pauses because there's
+    no suitable network and when it resumes
+    multipart uploads also have { bytesSent: number, totalBytes: number, partsDone: int,
+    totalParts: int (not in adaptive mode), throughput: number (bytes/s), currentPart: int,
+    md5: string (when a part completes) }
   error - { id: string, error: string }
   cancelled - { id: string, error: string }
   completed - { id: string }
@@ -136,4 +244,4 @@ export const addListener = (eventType: UploadEvent, uploadId: string, listener:
   })
 }
 
-export default { startUpload, cancelUpload, addListener, getFileInfo, startMultiPartUpload }
+export default { startUpload, startUploads, cancelUpload, addListener, getFileInfo, startMultiPartUpload, resumeMultiPartUpload, getResumableMultiPartUploads, setMaxUploadRate, setProgressBatchInterval }